@@ -0,0 +1,88 @@
+package com.lorasim.misc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe set of small non-negative integers, such as node addresses.
+ * The first 64 bits live in a single word, so the common case allocates nothing
+ * and never locks. Larger values spill into segments of doubling size, allocated on demand.
+ * A segment is installed once with a CAS and never copied or replaced, so a bit set
+ * by one thread can't be lost while another thread makes room for a larger one.
+ */
+public class AtomicBitSet {
+	private static final AtomicLongFieldUpdater<AtomicBitSet> WORD =
+			AtomicLongFieldUpdater.newUpdater(AtomicBitSet.class, "word");
+	private static final int SEGMENTS = 25; // Segment k holds words 2^k to 2^(k+1)-1, enough for every non-negative int
+
+	private volatile long word; // Bits 0-63
+	private volatile AtomicReferenceArray<AtomicLongArray> overflow; // Segments holding bits 64 and up, allocated on first use
+
+	/**
+	 * @param bit bit to test
+	 * @return true if the bit is set
+	 */
+	public boolean get(int bit) {
+		if (bit < 0)
+			throw new IllegalArgumentException("Negative bit index: " + bit);
+		if (bit < 64)
+			return (word & (1L << bit)) != 0;
+		AtomicReferenceArray<AtomicLongArray> segments = overflow;
+		if (segments == null)
+			return false;
+		int w = bit >>> 6;
+		int k = 31 - Integer.numberOfLeadingZeros(w);
+		AtomicLongArray segment = segments.get(k);
+		return segment != null && (segment.get(w - (1 << k)) & (1L << bit)) != 0;
+	}
+
+	/**
+	 * Set a bit
+	 * @param bit bit to set
+	 * @return true if the bit was not already set
+	 */
+	public boolean set(int bit) {
+		if (bit < 0)
+			throw new IllegalArgumentException("Negative bit index: " + bit);
+		long mask = 1L << bit; // Java only uses the low 6 bits of the shift distance
+		if (bit < 64) {
+			long w;
+			do {
+				w = word;
+				if ((w & mask) != 0)
+					return false;
+			} while (!WORD.compareAndSet(this, w, w | mask));
+			return true;
+		}
+		int w = bit >>> 6;
+		int k = 31 - Integer.numberOfLeadingZeros(w);
+		AtomicLongArray segment = segmentFor(k);
+		int index = w - (1 << k);
+		long v;
+		do {
+			v = segment.get(index);
+			if ((v & mask) != 0)
+				return false;
+		} while (!segment.compareAndSet(index, v, v | mask));
+		return true;
+	}
+
+	// Get overflow segment k, installing it if no thread has yet
+	private AtomicLongArray segmentFor(int k) {
+		AtomicReferenceArray<AtomicLongArray> segments = overflow;
+		if (segments == null) {
+			synchronized (this) { // Only once per set, the first time a bit above 63 is set
+				if (overflow == null)
+					overflow = new AtomicReferenceArray<>(SEGMENTS);
+				segments = overflow;
+			}
+		}
+		AtomicLongArray segment = segments.get(k);
+		if (segment == null) {
+			segments.compareAndSet(k, null, new AtomicLongArray(1 << k));
+			segment = segments.get(k); // Ours, or the one another thread installed first
+		}
+		return segment;
+	}
+}
@@ -0,0 +1,56 @@
+package com.lorasim.misc;
+
+/**
+ * Table-driven CRCs, one byte per table lookup. Each update method takes the CRC so far
+ * and the next byte, so a CRC can be computed over any mix of sources without allocating.
+ */
+public class Crc {
+	public static final int CRC32_INIT = 0xFFFFFFFF;
+	public static final int CRC15_INIT = 0;
+	public static final int CRC8_INIT = 0;
+
+	private static final int CRC32_POLY = 0xEDB88320; // IEEE 802.3, reflected
+	private static final int CRC15_POLY = 0x4599; // CAN
+	private static final int CRC8_POLY = 0x07; // CRC-8/SMBUS
+
+	private static final int[] CRC32_TABLE = new int[256];
+	private static final int[] CRC15_TABLE = new int[256];
+	private static final int[] CRC8_TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int c32 = i;
+			int c15 = i << 7;
+			int c8 = i;
+			for (int bit = 0; bit < 8; bit++) {
+				c32 = (c32 & 1) != 0 ? (c32 >>> 1) ^ CRC32_POLY : c32 >>> 1;
+				c15 = (c15 & 0x4000) != 0 ? (c15 << 1) ^ CRC15_POLY : c15 << 1;
+				c8 = (c8 & 0x80) != 0 ? (c8 << 1) ^ CRC8_POLY : c8 << 1;
+			}
+			CRC32_TABLE[i] = c32;
+			CRC15_TABLE[i] = c15 & 0x7FFF;
+			CRC8_TABLE[i] = c8 & 0xFF;
+		}
+	}
+
+	/**
+	 * Add a byte to a CRC-32. Start from CRC32_INIT, and invert the result when done.
+	 */
+	public static int crc32Update(int crc, int b) {
+		return (crc >>> 8) ^ CRC32_TABLE[(crc ^ b) & 0xFF];
+	}
+
+	/**
+	 * Add a byte to a CRC-15/CAN. Start from CRC15_INIT.
+	 */
+	public static int crc15Update(int crc, int b) {
+		return ((crc << 8) ^ CRC15_TABLE[((crc >>> 7) ^ b) & 0xFF]) & 0x7FFF;
+	}
+
+	/**
+	 * Add a byte to a CRC-8. Start from CRC8_INIT.
+	 */
+	public static int crc8Update(int crc, int b) {
+		return CRC8_TABLE[(crc ^ b) & 0xFF];
+	}
+}
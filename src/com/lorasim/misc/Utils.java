@@ -3,6 +3,16 @@ package com.lorasim.misc;
 public class Utils {
 	public static final int SLEEP_DELAY = 15;
 
+	/**
+	 * Scramble the bits of a value (the finalizer from SplittableRandom), so that similar inputs
+	 * give unrelated outputs
+	 */
+	public static long mix64(long z){
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
 	public static void sleep(int ms){
 		try {
 			Thread.sleep(ms);
@@ -0,0 +1,41 @@
+package com.lorasim.network;
+
+/**
+ * How a packet sent with ProtocolTransceiver.sendAsync() reached its final node
+ */
+public class DeliveryReport {
+	private long latencyMs;
+	private int hops;
+	private int retries;
+
+	DeliveryReport(long latencyMs, int hops, int retries) {
+		this.latencyMs = latencyMs;
+		this.hops = hops;
+		this.retries = retries;
+	}
+
+	/**
+	 * @return Time from the call to sendAsync() until the final node accepted the packet, in milliseconds
+	 */
+	public long getLatencyMs() {
+		return latencyMs;
+	}
+
+	/**
+	 * @return Number of links the packet crossed
+	 */
+	public int getHops() {
+		return hops;
+	}
+
+	/**
+	 * @return Number of extra RTS attempts needed, over all hops
+	 */
+	public int getRetries() {
+		return retries;
+	}
+
+	public String toString() {
+		return "DeliveryReport {latency=" + latencyMs + "ms, hops=" + hops + ", retries=" + retries + "}";
+	}
+}
@@ -0,0 +1,41 @@
+package com.lorasim.network;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Follows one packet from sendAsync() to its final node. It is simulator-side bookkeeping:
+ * it travels along with the packet through the PHY, but is never part of the transmitted frame.
+ */
+class DeliveryTracker {
+	private CompletableFuture<DeliveryReport> future;
+	private long startMillis;
+	private int hops = 0;
+	private int retries = 0;
+
+	DeliveryTracker(long startMillis) {
+		this.future = new CompletableFuture<>();
+		this.startMillis = startMillis;
+	}
+
+	CompletableFuture<DeliveryReport> getFuture() {
+		return future;
+	}
+
+	// Called by each node that accepts the packet
+	synchronized void hop() {
+		hops++;
+	}
+
+	// Called each time a node has to send another RTS for the packet
+	synchronized void retry() {
+		retries++;
+	}
+
+	synchronized void delivered(long millis) {
+		future.complete(new DeliveryReport(millis - startMillis, hops, retries));
+	}
+
+	void fail(Throwable cause) {
+		future.completeExceptionally(cause);
+	}
+}
@@ -0,0 +1,275 @@
+package com.lorasim.network;
+
+import com.lorasim.physical.LoRaModulation;
+import com.lorasim.sim.SimClock;
+import com.lorasim.test.PrettyPrint;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sends payloads too large for one frame over a ProtocolTransceiver, by splitting them into fragments
+ * that each fit in a data packet, and reassembles the fragments that arrive.
+ * Each fragment starts with a header of the transfer ID, the fragment index, the number of fragments
+ * and the length of the whole payload, so the receiver can allocate the whole buffer on the first one.
+ * Incomplete transfers share a reassembly budget. When a new transfer doesn't fit in it,
+ * the transfers that have gone longest without a fragment are evicted to make room.
+ */
+public class FragmentationLayer implements ReceiveHandler {
+	public static final int HEADER_LENGTH = 5; // Transfer ID, fragment index, fragment count and 2 bytes of payload length
+	public static final int MAX_FRAGMENTS = 255;
+	public static final double DEFAULT_DUTY_CYCLE = 0.01; // 1%, as in most of the EU 868MHz band
+	public static final long DEFAULT_DUTY_CYCLE_PERIOD_MS = 60 * 1000;
+	public static final int DEFAULT_REASSEMBLY_BUDGET = 16 * 1024;
+	private static final int FINISHED_MEMORY = 32; // Finished transfers remembered, so late duplicate fragments don't start them again
+
+	private ProtocolTransceiver transceiver;
+	private SimClock clock;
+	private int address;
+	private int mtu;
+	private int nextTransferId = 0;
+	private int reassemblyBudget = DEFAULT_REASSEMBLY_BUDGET;
+	private int reassemblyBytes = 0; // Bytes allocated to incomplete transfers
+	private LinkedHashMap<Integer, IncomingTransfer> transfers; // Incomplete transfers by origin and ID, least recently active first
+	private LinkedHashMap<Integer, Integer> finished; // Shape of recently completed or evicted transfers, by origin and ID
+	private TransferListener transferListener;
+	private long completedTransferCount = 0;
+	private long evictedTransferCount = 0;
+	private long rejectedTransferCount = 0;
+
+	/**
+	 * Fragment to the largest frame the transceiver's modulation can send within the default duty cycle limit
+	 * @param transceiver transceiver to send fragments with. Its receive handler is replaced.
+	 */
+	public FragmentationLayer(ProtocolTransceiver transceiver) {
+		this(transceiver, computeMtu(transceiver.getPhysicalTransceiver().getModulation(), DEFAULT_DUTY_CYCLE, DEFAULT_DUTY_CYCLE_PERIOD_MS));
+	}
+
+	/**
+	 * @param transceiver transceiver to send fragments with. Its receive handler is replaced.
+	 * @param mtu Largest data packet payload to send, including the fragment header
+	 */
+	public FragmentationLayer(ProtocolTransceiver transceiver, int mtu) {
+		if (mtu <= HEADER_LENGTH || mtu > ProtocolTransceiver.MAX_DATA_LENGTH)
+			throw new IllegalArgumentException("Invalid MTU: " + mtu);
+		this.transceiver = transceiver;
+		this.clock = transceiver.getPhysicalTransceiver().getClock();
+		this.address = transceiver.getPhysicalTransceiver().getAddress();
+		this.mtu = mtu;
+		this.transfers = new LinkedHashMap<>(16, 0.75f, true);
+		this.finished = new LinkedHashMap<Integer, Integer>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+				return size() > FINISHED_MEMORY;
+			}
+		};
+		transceiver.setReceiveHandler(this);
+	}
+
+	/**
+	 * Find the largest data packet payload that can be sent once per period without going over the duty cycle,
+	 * so a frame's airtime can be at most dutyCycle * periodMs
+	 * @param modulation modulation the frames are sent with
+	 * @param dutyCycle fraction of the time the node may transmit
+	 * @param periodMs period the node sends one frame in
+	 * @return Largest payload, including the fragment header
+	 * @throws IllegalArgumentException if not even a fragment header fits
+	 */
+	public static int computeMtu(LoRaModulation modulation, double dutyCycle, long periodMs) {
+		double maxAirtimeMs = dutyCycle * periodMs;
+		int mtu = -1;
+		for (int length = NetworkPacket.DATA_HEADER_LENGTH; length <= LoRaModulation.MAX_PAYLOAD_LENGTH; length++)
+			if (modulation.getAirtimeMillis(length) <= maxAirtimeMs)
+				mtu = length - NetworkPacket.DATA_HEADER_LENGTH;
+		if (mtu <= HEADER_LENGTH)
+			throw new IllegalArgumentException("No fragment fits in " + maxAirtimeMs + "ms of airtime at " + modulation);
+		return mtu;
+	}
+
+	// Helper function for pretty-printing
+	private void println(String str, int prettyColor) {
+		PrettyPrint.println(this.address + ": " + str, prettyColor);
+	}
+
+	/**
+	 * Split a payload into fragments and queue them to send to another node, waiting for space in the
+	 * send queue if it is full. Unless timeoutMs is 0, this must be called from a process started on the clock.
+	 * @param finalNode Node to deliver the payload to
+	 * @param data Payload, of up to getMaxTransferLength() bytes
+	 * @param timeoutMs Maximum time to wait for space for each fragment: 0 to not wait, or a negative number to wait forever
+	 * @return true if every fragment was queued, false if the send queue stayed full and the rest were dropped
+	 */
+	public boolean send(int finalNode, byte[] data, long timeoutMs) {
+		if (data.length > getMaxTransferLength())
+			throw new IllegalArgumentException("Payload too long to fragment: " + data.length);
+		int count = Math.max(1, (data.length + mtu - HEADER_LENGTH - 1) / (mtu - HEADER_LENGTH));
+		int fragmentLength = (data.length + count - 1) / count; // Spread the data evenly over the fragments
+		int transferId = nextTransferId;
+		nextTransferId = (nextTransferId + 1) & 0xFF;
+		for (int x = 0; x < count; x++) {
+			int offset = x * fragmentLength;
+			int length = Math.min(fragmentLength, data.length - offset);
+			ByteBuffer fragment = ByteBuffer.allocate(HEADER_LENGTH + length);
+			fragment.put((byte) transferId).put((byte) x).put((byte) count).putShort((short) data.length);
+			fragment.put(data, offset, length);
+			if (!transceiver.send(finalNode, fragment.array(), timeoutMs))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Split a payload into fragments and queue them to send to another node, waiting as long as it takes
+	 * for space in the send queue. This must be called from a process started on the clock.
+	 * @param finalNode Node to deliver the payload to
+	 * @param data Payload, of up to getMaxTransferLength() bytes
+	 */
+	public void sendBlocking(int finalNode, byte[] data) {
+		send(finalNode, data, -1);
+	}
+
+	@Override
+	public void receive(NetworkPacket p) {
+		ByteBuffer fragment = p.getPayloadBuffer();
+		if (fragment.remaining() < HEADER_LENGTH) {
+			println("Discarded fragment without a header from " + p.getOrigin(), PrettyPrint.COLOR_RED);
+			return;
+		}
+		int transferId = fragment.get() & 0xFF;
+		int index = fragment.get() & 0xFF;
+		int count = fragment.get() & 0xFF;
+		int length = fragment.getShort() & 0xFFFF;
+		int key = (p.getOrigin() << 8) | transferId;
+		if (count == 0)
+			return;
+		// A fragment of a finished transfer is a late duplicate, unless the transfer ID has wrapped around
+		// and the origin started a new transfer with it. Only one with a different shape can be told apart.
+		Integer finishedShape = finished.get(key);
+		if (finishedShape != null) {
+			if (finishedShape == getShape(length, count))
+				return;
+			finished.remove(key);
+		}
+		IncomingTransfer transfer = transfers.get(key);
+		if (transfer != null && (transfer.getLength() != length || transfer.getFragmentCount() != count)) {
+			evict(key, transfer); // The origin started a new transfer with the same ID
+			finished.remove(key);
+		}
+		transfer = transfers.get(key);
+		if (transfer == null) {
+			if (length > reassemblyBudget) {
+				rejectedTransferCount++;
+				println("Rejected transfer of " + length + " bytes from " + p.getOrigin() + ", larger than the reassembly budget", PrettyPrint.COLOR_RED);
+				return;
+			}
+			// Make room, starting with the transfer that has gone longest without a fragment
+			Iterator<Map.Entry<Integer, IncomingTransfer>> it = transfers.entrySet().iterator();
+			while (reassemblyBytes + length > reassemblyBudget) {
+				Map.Entry<Integer, IncomingTransfer> oldest = it.next();
+				it.remove();
+				release(oldest.getKey(), oldest.getValue());
+			}
+			transfer = new IncomingTransfer(p.getOrigin(), transferId, length, count, clock.newSignal());
+			transfers.put(key, transfer);
+			reassemblyBytes += length;
+			if (transferListener != null)
+				transferListener.onTransferStarted(transfer);
+		}
+		try {
+			transfer.addFragment(index, fragment);
+		} catch (IllegalStateException e) {
+			println("Discarded fragment: " + e.getMessage(), PrettyPrint.COLOR_RED);
+			return;
+		}
+		if (transfer.isComplete()) {
+			transfers.remove(key);
+			reassemblyBytes -= length;
+			finished.put(key, getShape(length, count));
+			completedTransferCount++;
+			println("Reassembled " + length + " bytes from " + p.getOrigin(), PrettyPrint.COLOR_BLUE);
+			if (transferListener != null)
+				transferListener.onTransferComplete(transfer);
+		}
+	}
+
+	@Override
+	public NetworkPacket send() {
+		return null; // Nothing to send in reply
+	}
+
+	private void evict(int key, IncomingTransfer transfer) {
+		transfers.remove(key);
+		release(key, transfer);
+	}
+
+	// Free the buffer of an incomplete transfer that has been taken out of transfers
+	private void release(int key, IncomingTransfer transfer) {
+		transfer.evict();
+		reassemblyBytes -= transfer.getLength();
+		finished.put(key, getShape(transfer.getLength(), transfer.getFragmentCount()));
+		evictedTransferCount++;
+		println("Evicted " + transfer, PrettyPrint.COLOR_YELLOW);
+		if (transferListener != null)
+			transferListener.onTransferEvicted(transfer);
+	}
+
+	// Length and fragment count of a transfer, which tell transfers with the same ID apart
+	private static int getShape(int length, int count) {
+		return (count << 16) | length;
+	}
+
+	public void setTransferListener(TransferListener transferListener) {
+		this.transferListener = transferListener;
+	}
+
+	/**
+	 * Set how many bytes incomplete transfers may take up in total. Transfers larger than this are rejected.
+	 * Call this before the transceiver is started.
+	 * @param bytes Reassembly budget in bytes
+	 */
+	public void setReassemblyBudget(int bytes) {
+		this.reassemblyBudget = bytes;
+	}
+
+	public int getReassemblyBudget() {
+		return reassemblyBudget;
+	}
+
+	/**
+	 * @return Bytes currently allocated to incomplete transfers
+	 */
+	public int getReassemblyBytes() {
+		return reassemblyBytes;
+	}
+
+	public int getMtu() {
+		return mtu;
+	}
+
+	/**
+	 * @return Length of the largest payload that can be sent
+	 */
+	public int getMaxTransferLength() {
+		return Math.min(0xFFFF, MAX_FRAGMENTS * (mtu - HEADER_LENGTH));
+	}
+
+	public long getCompletedTransferCount() {
+		return completedTransferCount;
+	}
+
+	/**
+	 * @return Number of incomplete transfers dropped to make room for others
+	 */
+	public long getEvictedTransferCount() {
+		return evictedTransferCount;
+	}
+
+	/**
+	 * @return Number of transfers dropped because they were larger than the whole reassembly budget
+	 */
+	public long getRejectedTransferCount() {
+		return rejectedTransferCount;
+	}
+}
@@ -0,0 +1,184 @@
+package com.lorasim.network;
+
+import com.lorasim.sim.Signal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * A large payload being reassembled from its fragments. The buffer for the whole payload is allocated
+ * when the first fragment arrives, each fragment is copied straight into place, and a bitmap records
+ * which have arrived. The data from the start of the payload up to the first missing fragment can be
+ * read while the rest is still on its way.
+ */
+public class IncomingTransfer {
+	private int origin;
+	private int transferId;
+	private int length;
+	private byte[] data; // Released if the transfer is evicted
+	private int fragmentCount;
+	private int fragmentLength; // Length of every fragment but the last, which may be shorter
+	private BitSet received;
+	private int receivedCount = 0;
+	private int contiguousCount = 0; // Number of fragments from the start that have all arrived
+	private boolean evicted = false;
+	private Signal dataSignal; // Raised when more data can be read, or the transfer is evicted
+
+	IncomingTransfer(int origin, int transferId, int length, int fragmentCount, Signal dataSignal) {
+		this.origin = origin;
+		this.transferId = transferId;
+		this.length = length;
+		this.data = new byte[length];
+		this.fragmentCount = fragmentCount;
+		this.fragmentLength = (length + fragmentCount - 1) / fragmentCount;
+		this.received = new BitSet(fragmentCount);
+		this.dataSignal = dataSignal;
+	}
+
+	/**
+	 * Copy a fragment into place
+	 * @param index index of the fragment
+	 * @param fragment data of the fragment, from its position to its limit
+	 * @return true if the fragment was new, false if it had already arrived
+	 * @throws IllegalStateException if the fragment doesn't belong in this transfer
+	 */
+	synchronized boolean addFragment(int index, ByteBuffer fragment) {
+		int offset = index * fragmentLength;
+		if (index >= fragmentCount || fragment.remaining() != Math.min(fragmentLength, length - offset))
+			throw new IllegalStateException("Fragment " + index + " of " + fragment.remaining() + " bytes doesn't fit transfer " + transferId);
+		if (evicted || received.get(index))
+			return false;
+		fragment.get(data, offset, fragment.remaining());
+		received.set(index);
+		receivedCount++;
+		while (contiguousCount < fragmentCount && received.get(contiguousCount))
+			contiguousCount++;
+		if (contiguousCount > index) // The readable data grew
+			dataSignal.raise();
+		return true;
+	}
+
+	// Drop the transfer before it completes, releasing its buffer at once so its budget can be reused.
+	// Readers get an IOException on their next read, even if data that had arrived is still unread.
+	synchronized void evict() {
+		evicted = true;
+		data = new byte[0];
+		dataSignal.raise();
+	}
+
+	public int getOrigin() {
+		return origin;
+	}
+
+	public int getTransferId() {
+		return transferId;
+	}
+
+	/**
+	 * @return Length of the whole payload in bytes
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	public int getFragmentCount() {
+		return fragmentCount;
+	}
+
+	public synchronized int getReceivedFragmentCount() {
+		return receivedCount;
+	}
+
+	public synchronized boolean isComplete() {
+		return receivedCount == fragmentCount;
+	}
+
+	public synchronized boolean isEvicted() {
+		return evicted;
+	}
+
+	/**
+	 * @return Number of bytes from the start of the payload that have arrived
+	 */
+	public synchronized int getAvailableLength() {
+		if (evicted)
+			return 0;
+		return Math.min(length, contiguousCount * fragmentLength);
+	}
+
+	/**
+	 * @return A read-only view of the bytes from the start of the payload that have arrived,
+	 * which is the whole payload once the transfer is complete
+	 */
+	public synchronized ByteBuffer getBuffer() {
+		ByteBuffer view = ByteBuffer.wrap(data).asReadOnlyBuffer();
+		view.limit(getAvailableLength());
+		return view;
+	}
+
+	/**
+	 * Read the payload from the start, as it arrives. Reads wait for the next fragment in order to arrive,
+	 * so they must be made from a process started on the transceiver's clock, and only one stream of a
+	 * transfer may be waiting at a time. Once the transfer is evicted, reads throw an IOException,
+	 * and any data that had arrived but not been read yet is lost.
+	 * @return A new stream, positioned at the start of the payload
+	 */
+	public InputStream getInputStream() {
+		return new TransferInputStream();
+	}
+
+	@Override
+	public String toString() {
+		return "Transfer " + transferId + " from " + origin + ": " + receivedCount + "/" + fragmentCount + " fragments"
+				+ (evicted ? ", evicted" : "");
+	}
+
+	private class TransferInputStream extends InputStream {
+		private int position = 0;
+
+		@Override
+		public int read() throws IOException {
+			if (!waitForData())
+				return -1;
+			synchronized (IncomingTransfer.this) {
+				return data[position++] & 0xFF;
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!waitForData())
+				return -1;
+			synchronized (IncomingTransfer.this) {
+				int count = Math.min(len, getAvailableLength() - position);
+				System.arraycopy(data, position, b, off, count);
+				position += count;
+				return count;
+			}
+		}
+
+		@Override
+		public int available() {
+			return Math.max(0, getAvailableLength() - position);
+		}
+
+		// Wait until there is data at the current position. Returns false at the end of the payload.
+		private boolean waitForData() throws IOException {
+			while (true) {
+				synchronized (IncomingTransfer.this) {
+					if (evicted)
+						throw new IOException("Transfer " + transferId + " from " + origin + " was evicted before it completed");
+					if (position < getAvailableLength())
+						return true;
+					if (position >= length)
+						return false;
+				}
+				dataSignal.await(-1);
+			}
+		}
+	}
+}
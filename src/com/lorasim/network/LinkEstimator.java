@@ -0,0 +1,48 @@
+package com.lorasim.network;
+
+/**
+ * Estimates the quality of the link to each neighbor from the outcomes of the latest exchanges with it:
+ * whether an RTS got a CTS, and whether data got acknowledged.
+ * Each neighbor's outcomes are kept as the bits of an int, so recording one allocates nothing
+ * and the oldest outcome drops out of the window as a new one comes in.
+ */
+class LinkEstimator {
+	static final int WINDOW = 32; // Outcomes remembered per neighbor
+
+	private int[] history = new int[RoutingTable.MAX_NODES]; // Latest outcome in the lowest bit, 1 for success
+	private int[] sampleCount = new int[RoutingTable.MAX_NODES]; // Outcomes in the window, up to WINDOW
+
+	void success(int neighbor) {
+		record(neighbor, 1);
+	}
+
+	void failure(int neighbor) {
+		record(neighbor, 0);
+	}
+
+	private void record(int neighbor, int outcome) {
+		if (neighbor < 0 || neighbor >= RoutingTable.MAX_NODES)
+			return;
+		history[neighbor] = (history[neighbor] << 1) | outcome;
+		if (sampleCount[neighbor] < WINDOW)
+			sampleCount[neighbor]++;
+	}
+
+	/**
+	 * @return Fraction of the exchanges with a neighbor that succeeded, or 1 if there haven't been any
+	 */
+	double getPrr(int neighbor) {
+		if (neighbor < 0 || neighbor >= RoutingTable.MAX_NODES || sampleCount[neighbor] == 0)
+			return 1;
+		int count = sampleCount[neighbor];
+		int mask = count == WINDOW ? -1 : (1 << count) - 1;
+		return (double) Integer.bitCount(history[neighbor] & mask) / count;
+	}
+
+	/**
+	 * @return Expected number of attempts for an exchange with a neighbor to succeed, from 1 up to WINDOW
+	 */
+	double getEtx(int neighbor) {
+		return 1 / Math.max(getPrr(neighbor), 1.0 / WINDOW);
+	}
+}
@@ -1,26 +1,71 @@
 package com.lorasim.network;
 
+import com.lorasim.misc.Crc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
 public class NetworkPacket {
 	public static final int TYPE_DATA = 1;
 	public static final int TYPE_ACK = 2;
 	public static final int TYPE_RTS = 3;
 	public static final int TYPE_CTS = 4;
 	public static final int TYPE_ARX = 5;
-	private byte[] payload;
+	public static final int TYPE_BACK = 6; // Block ACK, answering a burst of DATA packets
+	public static final int TYPE_ADV = 7; // Route advertisement, broadcast on the RTS channel
+
+	public static final int BROADCAST_ADDRESS = 31;
+
+	// Frame lengths in bytes. Frames of 7 bytes or more are DATA or ADV, and the rest of the frame is the payload
+	public static final int DATA_HEADER_LENGTH = 7;
+	public static final int BACK_LENGTH = 6;
+	public static final int ACK_LENGTH = 5;
+	public static final int RTCTS_LENGTH = 4;
+
+	public static final int MAX_BURST_LENGTH = 15; // Limited by the RTS subtype values and the BACK bitmap
+	public static final int AGGREGATE_HEADER_LENGTH = 3; // Origin, final node and length of each part of an aggregate
+
+	// Subtype field of an RTS/CTS/ARX frame, indexed by type, and the reverse mapping (0 = invalid).
+	// An RTS for a burst of n DATA packets has subtype n, so a plain RTS (subtype 1) is a burst of one.
+	private static final int[] RTCTS_SUBTYPES = new int[7];
+	private static final int[] RTCTS_TYPES = new int[64];
+	static {
+		RTCTS_SUBTYPES[TYPE_RTS] = 1;
+		RTCTS_SUBTYPES[TYPE_CTS] = 33;
+		RTCTS_SUBTYPES[TYPE_ARX] = 34;
+		for (int type = 0; type < RTCTS_SUBTYPES.length; type++)
+			if (RTCTS_SUBTYPES[type] != 0)
+				RTCTS_TYPES[RTCTS_SUBTYPES[type]] = type;
+		for (int burstLength = 2; burstLength <= MAX_BURST_LENGTH; burstLength++)
+			RTCTS_TYPES[burstLength] = TYPE_RTS;
+	}
+
+	// The payload is the region [payloadOffset, payloadOffset + payloadLength) of this buffer,
+	// which may be a whole received frame. It is never copied between layers.
+	private ByteBuffer payload;
+	private int payloadOffset;
+	private int payloadLength;
 	private int src; // This sender
 	private int dest; // This receiver
 	private int origin; // First sender
 	private int finalNode; // Final receiver
 	private int seqNum; // Sequence # (1-127, 0 to reset)
 	private int ackNum; // Sequence #, coded for (N)ACKs
+	private int burstLength = 1; // Number of DATA packets an RTS reserves the channel for
+	private int ackBitmap; // BACK: bit n set if the packet n sequence numbers after seqNum was received
 	private int phyChannel; // When converting from a PHY packet
 	/*
-	 * 28-bit, secure: data
-	 * 15-bit, secure: ACK
-	 * 8-bit, basic: RTS or CTS
+	 * 28-bit, secure: data (low 28 bits of CRC-32)
+	 * 15-bit, secure: ACK or BACK (CRC-15/CAN)
+	 * 8-bit, basic: RTS or CTS (CRC-8)
+	 * Computed over the whole frame, with the checksum field set to 0
 	 */
 	private int checksum; // Checksum:
 	private int type;
+	private DeliveryTracker tracker; // Simulator-side only, never encoded
+	private DeliveryTracker[] partTrackers; // Simulator-side only: trackers of the parts of an aggregate
+	private long queuedMillis = -1; // Local only: time the packet was queued to send at this node, or -1 if it wasn't
 
 	public NetworkPacket() {
 
@@ -35,10 +80,22 @@ public class NetworkPacket {
 	 * @param finalNode The final node in the chain of transmissions (downstream)
 	 * @param seqNum The RDT Sequence number for the packet
 	 * @param ackNum Sequence number to acknowledge
-	 * @param type Type of the packet (DATA, ACK, RTS, CTS, or ARX)
-	 * @param payload User data to send. Only valid for DATA packets
+	 * @param type Type of the packet (DATA, ACK, RTS, CTS, ARX or BACK)
+	 * @param payload User data to send. Only valid for DATA packets.
+	 *                The array is not copied, so it must not be modified afterwards.
 	 */
 	public NetworkPacket(int src, int dest, int origin, int finalNode, int seqNum, int ackNum, int type, byte[] payload) {
+		this(src, dest, origin, finalNode, seqNum, ackNum, type, payload == null ? null : ByteBuffer.wrap(payload));
+	}
+
+	/**
+	 * Create a NetworkPacket without copying its payload.
+	 * Checksum will be calculated automatically.
+	 * @param payload User data to send, from its position to its limit. Only valid for DATA packets.
+	 *                The packet keeps a read-only view of it, so its contents must not be modified afterwards.
+	 * @see #NetworkPacket(int, int, int, int, int, int, int, byte[])
+	 */
+	public NetworkPacket(int src, int dest, int origin, int finalNode, int seqNum, int ackNum, int type, ByteBuffer payload) {
 		this.src = src;
 		this.dest = dest;
 		this.origin = origin;
@@ -47,80 +104,179 @@ public class NetworkPacket {
 		this.ackNum = ackNum;
 		this.type = type;
 		if (payload != null){
-			this.payload = new byte[payload.length];
-			for (int x = 0; x < payload.length; x++) {
-				this.payload[x] = payload[x];
-			}
+			this.payload = payload;
+			this.payloadOffset = payload.position();
+			this.payloadLength = payload.remaining();
 		} else {
-			if(type == TYPE_DATA)
+			if(type == TYPE_DATA || type == TYPE_ADV)
 				throw new IllegalArgumentException("Payload cannot be null for a data packet");
 		}
-		if(type == TYPE_DATA)
-			checksum = 1;
-		else if(type == TYPE_ACK)
-			checksum = 2;
-		else if(type == TYPE_RTS || type == TYPE_CTS || type == TYPE_ARX)
-			checksum = 3;
-		else
+		if(type != TYPE_DATA && type != TYPE_ACK && type != TYPE_RTS && type != TYPE_CTS && type != TYPE_ARX && type != TYPE_BACK && type != TYPE_ADV)
 			throw new IllegalArgumentException("Invalid type: " + type);
+		checksum = computeChecksum();
 	}
 
 	public static NetworkPacket RtsPacket(int src, int dest, int seqNum){
-		return new NetworkPacket(src, dest, 0, 0, seqNum, 0, TYPE_RTS, null);
+		return new NetworkPacket(src, dest, 0, 0, seqNum, 0, TYPE_RTS, (ByteBuffer) null);
 	}
 	public static NetworkPacket CtsPacket(int src, int dest, int seqNum){
-		return new NetworkPacket(src, dest, 0, 0, seqNum, 0, TYPE_CTS, null);
+		return new NetworkPacket(src, dest, 0, 0, seqNum, 0, TYPE_CTS, (ByteBuffer) null);
 	}
 	public static NetworkPacket ArxPacket(int src, int dest, int seqNum){
-		return new NetworkPacket(src, dest, 0, 0, seqNum, 0, TYPE_ARX, null);
+		return new NetworkPacket(src, dest, 0, 0, seqNum, 0, TYPE_ARX, (ByteBuffer) null);
 	}
 	public static NetworkPacket AckPacket(int src, int dest, int seqNum){
-		return new NetworkPacket(src, dest, 0, 0, seqNum, 127-seqNum, TYPE_ACK, null);
+		return new NetworkPacket(src, dest, 0, 0, seqNum, 127-seqNum, TYPE_ACK, (ByteBuffer) null);
+	}
+
+	/**
+	 * @param seqNum sequence # of the advertisement, counting up from 0 and wrapping at 127
+	 * @param routes encoded routes of the sender
+	 */
+	public static NetworkPacket AdvertisementPacket(int src, int seqNum, byte[] routes){
+		return new NetworkPacket(src, BROADCAST_ADDRESS, 0, 0, seqNum, 0, TYPE_ADV, routes);
+	}
+
+	/**
+	 * @param seqNum sequence # of the first packet in the burst
+	 * @param burstLength number of sequence #s the burst spans, 1 to MAX_BURST_LENGTH
+	 */
+	public static NetworkPacket BurstRtsPacket(int src, int dest, int seqNum, int burstLength){
+		if(burstLength < 1 || burstLength > MAX_BURST_LENGTH)
+			throw new IllegalArgumentException("Invalid burst length: " + burstLength);
+		NetworkPacket rtn = RtsPacket(src, dest, seqNum);
+		rtn.burstLength = burstLength;
+		rtn.checksum = rtn.computeChecksum();
+		return rtn;
+	}
+
+	/**
+	 * @param seqNum sequence # of the first packet in the burst
+	 * @param ackBitmap bit n set if the packet n sequence numbers after seqNum was received
+	 */
+	public static NetworkPacket BlockAckPacket(int src, int dest, int seqNum, int ackBitmap){
+		NetworkPacket rtn = new NetworkPacket(src, dest, 0, 0, seqNum, 0, TYPE_BACK, (ByteBuffer) null);
+		rtn.ackBitmap = ackBitmap & 0x7FFF;
+		rtn.checksum = rtn.computeChecksum();
+		return rtn;
+	}
+
+	/**
+	 * Pack several data packets into the payload of one DATA packet. Each part keeps its origin and
+	 * final node, so the next node can split them back out and send each on its own way.
+	 * The aggregate has origin and final node 0, which marks it as only travelling one hop,
+	 * so node 0 can't be the final node of a packet.
+	 * @param parts DATA packets to pack, each with a payload of up to 255 bytes
+	 * @return Aggregate, which still needs its src, dest and sequence # filled in
+	 */
+	public static NetworkPacket AggregatePacket(List<NetworkPacket> parts){
+		int length = 0;
+		for(NetworkPacket part : parts)
+			length += AGGREGATE_HEADER_LENGTH + part.payloadLength;
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		DeliveryTracker[] trackers = new DeliveryTracker[parts.size()];
+		for(int x = 0; x < parts.size(); x++){
+			NetworkPacket part = parts.get(x);
+			if(part.payloadLength > 255)
+				throw new IllegalArgumentException("Payload too long to aggregate: " + part.payloadLength);
+			payload.put((byte) part.origin);
+			payload.put((byte) part.finalNode);
+			payload.put((byte) part.payloadLength);
+			payload.put(part.getPayloadBuffer());
+			trackers[x] = part.tracker;
+		}
+		payload.flip();
+		NetworkPacket rtn = new NetworkPacket(0, 0, 0, 0, 0, 0, TYPE_DATA, payload);
+		rtn.partTrackers = trackers;
+		rtn.queuedMillis = parts.get(0).queuedMillis;
+		return rtn;
 	}
 
 	public NetworkPacket(byte[] raw, int channel) {
+		this(ByteBuffer.wrap(raw), channel);
+	}
+
+	/**
+	 * Decode a NetworkPacket from a raw frame. The payload of a DATA packet is
+	 * a view of the frame, so the frame must not be modified afterwards.
+	 * @param raw frame, from its position to its limit
+	 * @param channel channel the frame was received on
+	 */
+	public NetworkPacket(ByteBuffer raw, int channel) {
+		decode(raw, channel);
+	}
+
+	/**
+	 * Decode a raw frame into this packet, replacing all of its fields. Nothing is allocated,
+	 * so one instance can be reused for every received frame. The payload of a DATA packet is
+	 * a view of the frame, so the frame must not be modified while this packet is in use.
+	 * @param raw frame, from its position to its limit. Its position is not changed.
+	 * @param channel channel the frame was received on
+	 * @return this packet
+	 */
+	public NetworkPacket decode(ByteBuffer raw, int channel) {
+		int base = raw.position();
+		int length = raw.remaining();
 		this.phyChannel = channel;
-		if (raw.length >= 7) { // DATA
-			type = TYPE_DATA;
-			src = bitVector(raw, 0, 5);
-			dest = bitVector(raw, 5, 10);
-			if (bitVector(raw, 10, 11) != 1)
-				throw new IllegalStateException("Malformed DATA Packet (sig != 1)");
-			origin = bitVector(raw, 11, 16);
-			finalNode = bitVector(raw, 16, 21);
-			seqNum = bitVector(raw, 21, 28);
-			checksum = bitVector(raw, 28, 56);
-			payload = new byte[raw.length - 7];
-			for (int x = 7; x < raw.length; x++) {
-				payload[x - 7] = raw[x];
-			}
-		} else if (raw.length == 5) {
+		this.origin = 0;
+		this.finalNode = 0;
+		this.ackNum = 0;
+		this.burstLength = 1;
+		this.ackBitmap = 0;
+		this.payload = null;
+		this.payloadOffset = 0;
+		this.payloadLength = 0;
+		this.tracker = null;
+		this.partTrackers = null;
+		if (length >= DATA_HEADER_LENGTH) { // DATA or ADV, told apart by sig
+			long word = readWord(raw, base, DATA_HEADER_LENGTH);
+			type = ((word >>> 45) & 1) == 1 ? TYPE_DATA : TYPE_ADV;
+			src = (int) (word >>> 51) & 31;
+			dest = (int) (word >>> 46) & 31;
+			origin = (int) (word >>> 40) & 31;
+			finalNode = (int) (word >>> 35) & 31;
+			seqNum = (int) (word >>> 28) & 127;
+			checksum = (int) word & 0xFFFFFFF;
+			payload = raw;
+			payloadOffset = base + DATA_HEADER_LENGTH;
+			payloadLength = length - DATA_HEADER_LENGTH;
+		} else if (length == BACK_LENGTH) {
+			long word = readWord(raw, base, BACK_LENGTH);
+			type = TYPE_BACK;
+			src = (int) (word >>> 43) & 31;
+			dest = (int) (word >>> 38) & 31;
+			if (((word >>> 37) & 1) != 0)
+				throw new IllegalStateException("Malformed BACK Packet (sig != 0)");
+			seqNum = (int) (word >>> 30) & 127;
+			ackBitmap = (int) (word >>> 15) & 0x7FFF;
+			checksum = (int) word & 0x7FFF;
+		} else if (length == ACK_LENGTH) {
+			long word = readWord(raw, base, ACK_LENGTH);
 			type = TYPE_ACK;
-			src = bitVector(raw, 0, 5);
-			dest = bitVector(raw, 5, 10);
-			if (bitVector(raw, 10, 11) != 0)
+			src = (int) (word >>> 35) & 31;
+			dest = (int) (word >>> 30) & 31;
+			if (((word >>> 29) & 1) != 0)
 				throw new IllegalStateException("Malformed ACK Packet (sig != 0)");
-			seqNum = bitVector(raw, 11, 18);
-			ackNum = bitVector(raw, 18, 25);
-			checksum = bitVector(raw, 25, 40);
-		} else if (raw.length == 4) {
-			src = bitVector(raw, 0, 5);
-			dest = bitVector(raw, 5, 10);
-			if (bitVector(raw, 10, 11) != 0)
+			seqNum = (int) (word >>> 22) & 127;
+			ackNum = (int) (word >>> 15) & 127;
+			checksum = (int) word & 0x7FFF;
+		} else if (length == RTCTS_LENGTH) {
+			long word = readWord(raw, base, RTCTS_LENGTH);
+			src = (int) (word >>> 27) & 31;
+			dest = (int) (word >>> 22) & 31;
+			if (((word >>> 21) & 1) != 0)
 				throw new IllegalStateException("Malformed RTCTS Packet (sig != 0)");
-			seqNum = bitVector(raw, 11, 18);
-			int typeNum = bitVector(raw, 18, 24);
-			checksum = bitVector(raw, 24, 32);
-			if (typeNum == 1)
-				type = TYPE_RTS;
-			else if (typeNum == 33)
-				type = TYPE_CTS;
-			else if (typeNum == 34)
-				type = TYPE_ARX;
-			else
+			seqNum = (int) (word >>> 14) & 127;
+			int typeNum = (int) (word >>> 8) & 63;
+			checksum = (int) word & 0xFF;
+			type = RTCTS_TYPES[typeNum];
+			if (type == 0)
 				throw new IllegalStateException("Invalid subtype for RTCTS packet: " + typeNum);
+			if (type == TYPE_RTS)
+				burstLength = typeNum;
 		} else
-			throw new IllegalStateException("Invalid packet length: " + raw.length);
+			throw new IllegalStateException("Invalid packet length: " + length);
+		return this;
 	}
 
 	public String toString(){
@@ -141,79 +297,288 @@ public class NetworkPacket {
 			case TYPE_ARX:
 				typeStr = "ARX";
 				break;
+			case TYPE_BACK:
+				typeStr = "BACK";
+				break;
+			case TYPE_ADV:
+				typeStr = "ADV";
+				break;
 		}
+		if(type == TYPE_RTS && burstLength > 1)
+			typeStr += "x" + burstLength;
+		else if(type == TYPE_BACK)
+			typeStr += "/" + Integer.toBinaryString(ackBitmap);
 		return String.format("NetworkPacket {ch=%d, type=%s, src=%d, dest=%d, origin=%d, final=%d, seq=%d, ack=%d, payload=%s}",
-				phyChannel, typeStr,  src,  dest,  origin,  finalNode,  seqNum,  ackNum,  payload == null ? "NULL" : new String(payload));
+				phyChannel, typeStr,  src,  dest,  origin,  finalNode,  seqNum,  ackNum,  payload == null ? "NULL" : getPayloadString());
+	}
+
+	/**
+	 * @return Length of this packet on the wire in bytes, or 0 if its type is invalid
+	 */
+	public int getLength() {
+		int headerLength = getHeaderLength();
+		return hasPayload() ? headerLength + payloadLength : headerLength;
+	}
+
+	// True for the types of packet that carry a payload after their header
+	private boolean hasPayload() {
+		return type == TYPE_DATA || type == TYPE_ADV;
 	}
 
+	// Length of the header in bytes (the whole frame, except for DATA and ADV), or 0 if the type is invalid
+	private int getHeaderLength() {
+		if (hasPayload())
+			return DATA_HEADER_LENGTH;
+		if (type == TYPE_ACK)
+			return ACK_LENGTH;
+		if (type == TYPE_BACK)
+			return BACK_LENGTH;
+		if (type == TYPE_RTS || type == TYPE_CTS || type == TYPE_ARX)
+			return RTCTS_LENGTH;
+		return 0;
+	}
+
+	/**
+	 * @return This packet encoded as a new frame, or null if its type is invalid
+	 */
 	public byte[] getData() {
-		if (type == TYPE_DATA) {
-			byte[] rtn = new byte[7 + payload.length];
-			rtn[0] |= (src << 3);
-			rtn[0] |= (dest & 31) >> 2;
-			rtn[1] |= (dest << 6);
-			rtn[1] |= (1 << 5);
-			rtn[1] |= (origin & 31);
-			rtn[2] |= (finalNode << 3);
-			rtn[2] |= (seqNum & 127) >> 4;
-			rtn[3] |= (seqNum << 4);
-			rtn[3] |= (checksum >> 24) & 15;
-			rtn[4] |= (checksum >> 16);
-			rtn[5] |= (checksum >> 8);
-			rtn[6] |= (checksum >> 0);
-			for (int x = 0; x < payload.length; x++) {
-				rtn[7 + x] = payload[x];
-			}
-			return rtn;
+		int length = getLength();
+		if (length == 0)
+			return null;
+		byte[] rtn = new byte[length];
+		encode(ByteBuffer.wrap(rtn));
+		return rtn;
+	}
+
+	/**
+	 * Encode this packet into a caller-supplied buffer, starting at its position.
+	 * The position is advanced past the frame.
+	 * @param dst buffer to encode into. It must have at least getLength() bytes remaining.
+	 * @return number of bytes written
+	 */
+	public int encode(ByteBuffer dst) {
+		int headerLength = getHeaderLength();
+		long word = getHeaderWord(checksum);
+		for (int shift = (headerLength - 1) * 8; shift >= 0; shift -= 8)
+			dst.put((byte) (word >>> shift));
+		if (hasPayload()) {
+			for (int x = 0; x < payloadLength; x++)
+				dst.put(payload.get(payloadOffset + x));
+		}
+		return getLength();
+	}
+
+	// The header of this packet as a big-endian number, with the given checksum
+	private long getHeaderWord(int checksum) {
+		if (hasPayload()) {
+			return ((long) (src & 31) << 51) | ((long) (dest & 31) << 46) | (type == TYPE_DATA ? 1L << 45 : 0)
+					| ((long) (origin & 31) << 40) | ((long) (finalNode & 31) << 35)
+					| ((long) (seqNum & 127) << 28) | (checksum & 0xFFFFFFFL);
 		} else if (type == TYPE_ACK) {
-			byte[] rtn = new byte[5];
-			rtn[0] |= (src << 3);
-			rtn[0] |= (dest & 31) >> 2;
-			rtn[1] |= (dest << 6);
-			rtn[1] |= (seqNum & 127) >> 2;
-			rtn[2] |= (seqNum << 6);
-			rtn[2] |= (ackNum & 127) >> 1;
-			rtn[3] |= (ackNum << 7);
-			rtn[3] |= (checksum >> 8) & 127;
-			rtn[4] |= (checksum >> 0);
-			return rtn;
+			return ((long) (src & 31) << 35) | ((long) (dest & 31) << 30)
+					| ((long) (seqNum & 127) << 22) | ((long) (ackNum & 127) << 15) | (checksum & 0x7FFFL);
+		} else if (type == TYPE_BACK) {
+			return ((long) (src & 31) << 43) | ((long) (dest & 31) << 38)
+					| ((long) (seqNum & 127) << 30) | ((long) (ackBitmap & 0x7FFF) << 15) | (checksum & 0x7FFFL);
 		} else if (type == TYPE_RTS || type == TYPE_CTS || type == TYPE_ARX) {
-			byte rtctsType = 0;
-			if (type == TYPE_RTS)
-				rtctsType = 1;
-			if (type == TYPE_CTS)
-				rtctsType = 33;
-			if (type == TYPE_ARX)
-				rtctsType = 34;
-			byte[] rtn = new byte[4];
-			rtn[0] |= (src << 3);
-			rtn[0] |= (dest & 31) >> 2;
-			rtn[1] |= (dest << 6);
-			rtn[1] |= (seqNum & 127) >> 2;
-			rtn[2] |= (seqNum << 6);
-			rtn[2] |= rtctsType;
-			rtn[3] = ((byte) checksum);
-			return rtn;
+			int subtype = type == TYPE_RTS ? burstLength : RTCTS_SUBTYPES[type];
+			return ((long) (src & 31) << 27) | ((long) (dest & 31) << 22)
+					| ((long) (seqNum & 127) << 14) | ((long) subtype << 8) | (checksum & 0xFFL);
+		}
+		throw new IllegalStateException("Invalid type: " + type);
+	}
+
+	/**
+	 * @return The checksum this packet should carry, based on its other fields and its payload
+	 */
+	private int computeChecksum() {
+		return computeChecksum(getHeaderWord(0), getHeaderLength(), payload, payloadOffset, hasPayload() ? payloadLength : 0);
+	}
+
+	/**
+	 * @param word header, with its checksum field set to 0
+	 * @param headerLength length of the header in bytes, which also selects the CRC
+	 * @param payload buffer holding the payload (may be null if length is 0)
+	 * @param offset index of the payload in the buffer
+	 * @param length length of the payload
+	 * @return the checksum for the frame
+	 */
+	private static int computeChecksum(long word, int headerLength, ByteBuffer payload, int offset, int length) {
+		if (headerLength == DATA_HEADER_LENGTH) {
+			int crc = Crc.CRC32_INIT;
+			for (int shift = (headerLength - 1) * 8; shift >= 0; shift -= 8)
+				crc = Crc.crc32Update(crc, (int) (word >>> shift));
+			for (int x = 0; x < length; x++)
+				crc = Crc.crc32Update(crc, payload.get(offset + x));
+			return ~crc & 0xFFFFFFF;
+		} else if (headerLength == ACK_LENGTH || headerLength == BACK_LENGTH) {
+			int crc = Crc.CRC15_INIT;
+			for (int shift = (headerLength - 1) * 8; shift >= 0; shift -= 8)
+				crc = Crc.crc15Update(crc, (int) (word >>> shift));
+			return crc;
+		} else {
+			int crc = Crc.CRC8_INIT;
+			for (int shift = (headerLength - 1) * 8; shift >= 0; shift -= 8)
+				crc = Crc.crc8Update(crc, (int) (word >>> shift));
+			return crc;
 		}
-		return null;
 	}
 
+	/**
+	 * Check the checksum of a raw frame without decoding it.
+	 * Nothing is allocated, so this is cheap enough to run on every received frame.
+	 * @param raw frame, from its position to its limit. Its position is not changed.
+	 * @return true if the frame has a valid length and checksum
+	 */
+	public static boolean verify(ByteBuffer raw) {
+		int base = raw.position();
+		int length = raw.remaining();
+		int headerLength;
+		long checksumMask;
+		if (length >= DATA_HEADER_LENGTH) {
+			headerLength = DATA_HEADER_LENGTH;
+			checksumMask = 0xFFFFFFFL;
+		} else if (length == BACK_LENGTH || length == ACK_LENGTH) {
+			headerLength = length;
+			checksumMask = 0x7FFFL;
+		} else if (length == RTCTS_LENGTH) {
+			headerLength = RTCTS_LENGTH;
+			checksumMask = 0xFFL;
+		} else
+			return false;
+		long word = readWord(raw, base, headerLength);
+		int checksum = (int) (word & checksumMask);
+		return checksum == computeChecksum(word & ~checksumMask, headerLength, raw, base + headerLength, length - headerLength);
+	}
+
+	// Read the first length bytes of a frame as a big-endian number
+	private static long readWord(ByteBuffer raw, int base, int length) {
+		long word = 0;
+		for (int x = 0; x < length; x++)
+			word = (word << 8) | (raw.get(base + x) & 0xFF);
+		return word;
+	}
+
+	/**
+	 * @return A copy of the payload, which the caller is free to modify
+	 */
 	public byte[] getPayload(){
-		byte[] rtn = new byte[payload.length];
+		byte[] rtn = new byte[payloadLength];
 		for(int x = 0; x < rtn.length; x++){
-			rtn[x] = payload[x];
+			rtn[x] = payload.get(payloadOffset + x);
 		}
 		return rtn;
 	}
 
+	/**
+	 * @return A read-only view of the payload, without copying it
+	 */
+	public ByteBuffer getPayloadBuffer(){
+		ByteBuffer view = payload.asReadOnlyBuffer();
+		view.limit(payloadOffset + payloadLength);
+		view.position(payloadOffset);
+		return view.slice();
+	}
+
+	public int getPayloadLength(){
+		return payloadLength;
+	}
+
 	public String getPayloadString(){
 		StringBuilder sb = new StringBuilder();
-		for(int x = 0; x < payload.length; x++){
-			sb.append((char)payload[x]);
+		for(int x = 0; x < payloadLength; x++){
+			sb.append((char)payload.get(payloadOffset + x));
 		}
 		return sb.toString();
 	}
 
+	/**
+	 * @return A new packet with the same fields. The payload is shared, not copied.
+	 */
+	public NetworkPacket copy(){
+		NetworkPacket rtn = new NetworkPacket();
+		rtn.src = src;
+		rtn.dest = dest;
+		rtn.origin = origin;
+		rtn.finalNode = finalNode;
+		rtn.seqNum = seqNum;
+		rtn.ackNum = ackNum;
+		rtn.burstLength = burstLength;
+		rtn.ackBitmap = ackBitmap;
+		rtn.phyChannel = phyChannel;
+		rtn.checksum = checksum;
+		rtn.type = type;
+		rtn.payload = payload;
+		rtn.payloadOffset = payloadOffset;
+		rtn.payloadLength = payloadLength;
+		rtn.tracker = tracker;
+		rtn.partTrackers = partTrackers;
+		rtn.queuedMillis = queuedMillis;
+		return rtn;
+	}
+
+	/**
+	 * @return true if this is an aggregate of several data packets, made by AggregatePacket()
+	 */
+	public boolean isAggregate(){
+		return type == TYPE_DATA && origin == 0 && finalNode == 0;
+	}
+
+	/**
+	 * Unpack the parts of an aggregate
+	 * @return The parts, as DATA packets with their own origin, final node and payload
+	 * @throws IllegalStateException if the aggregate is malformed
+	 */
+	public ArrayList<NetworkPacket> split(){
+		ArrayList<NetworkPacket> parts = new ArrayList<>();
+		int pos = payloadOffset;
+		int end = payloadOffset + payloadLength;
+		while(pos < end){
+			if(pos + AGGREGATE_HEADER_LENGTH > end)
+				throw new IllegalStateException("Malformed aggregate (truncated header)");
+			int partOrigin = payload.get(pos) & 0xFF;
+			int partFinal = payload.get(pos + 1) & 0xFF;
+			int partLength = payload.get(pos + 2) & 0xFF;
+			pos += AGGREGATE_HEADER_LENGTH;
+			if(pos + partLength > end)
+				throw new IllegalStateException("Malformed aggregate (truncated payload)");
+			byte[] partPayload = new byte[partLength];
+			for(int x = 0; x < partLength; x++)
+				partPayload[x] = payload.get(pos + x);
+			pos += partLength;
+			NetworkPacket part = new NetworkPacket(0, 0, partOrigin, partFinal, 0, 0, TYPE_DATA, partPayload);
+			if(partTrackers != null && parts.size() < partTrackers.length)
+				part.tracker = partTrackers[parts.size()];
+			part.queuedMillis = queuedMillis;
+			parts.add(part);
+		}
+		return parts;
+	}
+
+	DeliveryTracker getTracker(){
+		return tracker;
+	}
+
+	void setTracker(DeliveryTracker tracker){
+		this.tracker = tracker;
+	}
+
+	DeliveryTracker[] getPartTrackers(){
+		return partTrackers;
+	}
+
+	void setPartTrackers(DeliveryTracker[] partTrackers){
+		this.partTrackers = partTrackers;
+	}
+
+	long getQueuedMillis(){
+		return queuedMillis;
+	}
+
+	void setQueuedMillis(long queuedMillis){
+		this.queuedMillis = queuedMillis;
+	}
+
 	public int getSrc(){
 		return src;
 	}
@@ -232,6 +597,12 @@ public class NetworkPacket {
 	public int getAckNum(){
 		return ackNum;
 	}
+	public int getBurstLength(){
+		return burstLength;
+	}
+	public int getAckBitmap(){
+		return ackBitmap;
+	}
 	public int getChecksum(){
 		return checksum;
 	}
@@ -239,15 +610,6 @@ public class NetworkPacket {
 		return type;
 	}
 
-	private static int bitVector(byte[] arr, int start, int end) {
-		int rtn = 0;
-		for (int x = start; x < end; x++) {
-			int bit = ((arr[x / 8]) & (1 << (7 - (x & 7)))) > 0 ? 1 : 0;
-			rtn = (rtn << 1) | bit;
-		}
-		return rtn;
-	}
-
 	private static void printByteArr(byte[] arr) {
 		if (arr == null) {
 			System.out.println("[null]");
@@ -256,7 +618,7 @@ public class NetworkPacket {
 		System.out.print("[");
 		for (int x = 0; x < arr.length * 8; x++) {
 //			System.out.printf("%1$02X", arr[x]);
-			System.out.print(bitVector(arr, x, x + 1));
+			System.out.print((arr[x / 8] >> (7 - (x & 7))) & 1);
 //			if(x < arr.length - 1)
 //				System.out.print(" ");
 		}
@@ -277,7 +639,8 @@ public class NetworkPacket {
 			lp.finalNode = 4;
 			lp.seqNum = 42;
 			lp.checksum = 124816;
-			lp.payload = new byte[]{0x32, 0x21, 0x10};
+			lp.payload = ByteBuffer.wrap(new byte[]{0x32, 0x21, 0x10});
+			lp.payloadLength = 3;
 			byte[] data = lp.getData();
 			printByteArr(data);
 			NetworkPacket lp2 = new NetworkPacket(data, 0);
@@ -287,7 +650,7 @@ public class NetworkPacket {
 			System.out.println(lp2.finalNode + " = 4");
 			System.out.println(lp2.seqNum + " = 42");
 			System.out.println(lp2.checksum + " = 124816");
-			printByteArr(lp2.payload);
+			printByteArr(lp2.getPayload());
 			System.out.println(" = [32 21 10]");
 		}
 		// Test packets of type ACK
@@ -328,8 +691,10 @@ public class NetworkPacket {
 		}
 	}
 
+	/**
+	 * @return true if the checksum does not match the rest of the packet
+	 */
 	public boolean corrupt() {
-		return false;
-		// TODO verify checksum
+		return checksum != computeChecksum();
 	}
 }
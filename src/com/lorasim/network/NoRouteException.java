@@ -0,0 +1,28 @@
+package com.lorasim.network;
+
+/**
+ * A node on the way had no route to a packet's final node
+ */
+public class NoRouteException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private int node;
+	private int finalNode;
+
+	public NoRouteException(int node, int finalNode) {
+		super("Node " + node + " has no route to " + finalNode);
+		this.node = node;
+		this.finalNode = finalNode;
+	}
+
+	/**
+	 * @return Address of the node that had no route
+	 */
+	public int getNode() {
+		return node;
+	}
+
+	public int getFinalNode() {
+		return finalNode;
+	}
+}
@@ -1,13 +1,25 @@
 package com.lorasim.network;
 
-import com.lorasim.misc.Utils;
+import com.lorasim.physical.LoRaModulation;
+import com.lorasim.physical.Medium;
 import com.lorasim.physical.PhysicalPacket;
 import com.lorasim.physical.PhysicalTransceiver;
+import com.lorasim.physical.RadioListener;
+import com.lorasim.sim.Cancellable;
+import com.lorasim.sim.Signal;
+import com.lorasim.sim.SimClock;
 import com.lorasim.test.MonitorableTransceiver;
 import com.lorasim.test.PrettyPrint;
 
-import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Wraps an underlying PhysicalTransceiver to implement RDT over LoRa
@@ -21,31 +33,98 @@ public class ProtocolTransceiver implements Runnable, MonitorableTransceiver {
 	public static final int STATE_WAIT_RXEND = 3;
 	public static final int STATE_WAIT_TX = 4;
 	public static final int STATE_WAIT_ACK = 5;
+	public static final int STATE_WAIT_BACK = 6; // Sent a burst, waiting for the block ACK
+	public static final int STATE_WAIT_BURST = 7; // Sent a CTS for a burst, receiving its packets
 
 	public static final int MAX_BACKOFF_COUNT = 4; // Maximum 2^n value for exponential backoff
 	public static final int TIMEOUT_RXSTART = 300; // Timeout to begin receiving data after CTS finished
+	public static final int TIMEOUT_CTSRECV = 1000; // Timeout to wait after sending RTS for a CTS, before backing off
 	public static final int TIMEOUT_RTSBACKOFF = 300; // Timeout to wait before sending another RTS request (exponential backoff)
 	public static final int TIMEOUT_ACKRECV = 3000; // Timeout to wait after sending data packet for an ACK
-	public static final int CYCLE_SLEEP = 20; // Milliseconds to sleep between each run of main loop
+	public static final int TURNAROUND_DELAY = 30; // Delay before answering, to give the other node time to switch channel
+	public static final int DEFAULT_SEND_QUEUE_CAPACITY = 16;
+	public static final int ROUTE_TIMEOUT_ADVERTISEMENTS = 3; // Learnt routes are dropped after this many advertisement intervals without being advertised
+	public static final int MAX_DATA_LENGTH = LoRaModulation.MAX_PAYLOAD_LENGTH - NetworkPacket.DATA_HEADER_LENGTH; // Largest payload that fits in a frame
 
 	private int state = STATE_WAIT_RTS;
 	private long timer = 0;
 	private int timeout = 0;
 	private int backoffCount = 0;
-	private NetworkPacket manualPacket;
+	private int rtsAttempts = 0; // Number of RTS sent for queuedPacket
+	private SendQueue sendQueue; // Packets from send(), waiting for the FSM to pick them up
 	private NetworkPacket queuedPacket;
+	private ArrayDeque<NetworkPacket> forwardQueue; // Packets received in a burst, waiting to be forwarded
+	private int windowSize = 1; // Maximum packets per burst. 1 sends every packet on its own (stop-and-wait)
+	private ArrayList<NetworkPacket> burst; // Packets of the burst being sent that haven't been acknowledged yet
+	private int rxBurstSrc; // Burst being received: sender, first sequence #, length and packets received so far
+	private int rxBurstStart;
+	private int rxBurstLength;
+	private int rxBurstBitmap;
+	private int maxAggregateLength = 0; // Maximum payload of an aggregate of small packets, or 0 to not aggregate
+	private int maxHoldMs = 0; // Maximum time to hold a packet back at each hop, waiting for more to aggregate with it
 	private PhysicalTransceiver physicalTransceiver;
 	private ReceiveHandler receiveHandler;
-	private Hashtable<Integer, Integer> routingTable;
+	private RoutingTable routingTable;
+	private LinkEstimator linkEstimator = new LinkEstimator();
+	private long advertisementIntervalMs = 0; // Interval between route advertisements, or 0 to only use static routes
+	private long nextAdvertisementMillis = -1; // Time the next route advertisement is due, or -1 before the first is scheduled
+	private int advertisementSeqNum = 0;
+	private long advertisementCount = 0;
+	private long advertisementAirtimeMs = 0;
+	private long dataAirtimeMs = 0; // Airtime of data packets sent, including retransmissions
 	private Hashtable<Integer, Integer> txSequenceTable;
-	private Hashtable<Integer, Integer> rxSequenceTable;
+	private Hashtable<Integer, SequenceWindow> rxWindowTable; // Sequence #s recently accepted from each node
+	private SimClock clock;
+	private Signal wakeSignal; // Raised by the PHY and by send() when the main loop has something to do
+	private boolean receivedThisCycle; // True if the main loop took a packet from the PHY on this run
+	private NetworkPacket rxPacket = new NetworkPacket(); // Reused to decode every received frame
+	private ByteBuffer txBuffer = ByteBuffer.allocate(LoRaModulation.MAX_PAYLOAD_LENGTH); // Reused to encode every frame sent
+	private long corruptPacketCount = 0;
+	private long deliveredPacketCount = 0;
+	private long receivedPayloadBytes = 0;
+	private SplittableRandom random; // Used for backoff
 
 	public ProtocolTransceiver(int address){
-		this.address = address;
-		this.routingTable = new Hashtable<>();
+		this(address, Medium.getDefault());
+	}
+
+	public ProtocolTransceiver(int address, Medium medium){
+		this(new PhysicalTransceiver(address, medium));
+	}
+
+	/**
+	 * Run the protocol on an existing radio, such as a GatewayTransceiver
+	 * @param physicalTransceiver radio to use. Its radio listener is replaced.
+	 */
+	public ProtocolTransceiver(PhysicalTransceiver physicalTransceiver){
+		this.address = physicalTransceiver.getAddress();
+		this.clock = physicalTransceiver.getClock();
+		this.routingTable = new RoutingTable(address);
 		this.txSequenceTable = new Hashtable<>();
-		this.rxSequenceTable = new Hashtable<>();
-		physicalTransceiver = new PhysicalTransceiver(address);
+		this.rxWindowTable = new Hashtable<>();
+		this.physicalTransceiver = physicalTransceiver;
+		this.sendQueue = new SendQueue(DEFAULT_SEND_QUEUE_CAPACITY, clock);
+		this.forwardQueue = new ArrayDeque<>();
+		this.burst = new ArrayList<>();
+		this.random = physicalTransceiver.getMedium().newRandom(Medium.STREAM_PROTOCOL, address, 0);
+		wakeSignal = clock.newSignal();
+		physicalTransceiver.setRadioListener(new RadioListener() {
+			// Every radio event may be one the main loop is waiting for
+			@Override
+			public void onRxStart(PhysicalTransceiver t) {
+				wakeSignal.raise();
+			}
+
+			@Override
+			public void onRxDone(PhysicalTransceiver t, PhysicalPacket p) {
+				wakeSignal.raise();
+			}
+
+			@Override
+			public void onCrcError(PhysicalTransceiver t) {
+				wakeSignal.raise();
+			}
+		});
 		PrettyPrint.println("Created Transceiver with address " + address, PrettyPrint.COLOR_YELLOW);
 	}
 
@@ -57,46 +136,49 @@ public class ProtocolTransceiver implements Runnable, MonitorableTransceiver {
 	// Main thread that implements protocol
 	public void run(){
 		while(true){
+			int lastState = state;
+			receivedThisCycle = false;
 			if(state == STATE_WAIT_RTS){ // Waiting for another node to request to send data, or for a manual send request
 				physicalTransceiver.setChannel(rtsChannel);
 				NetworkPacket np = getNetworkPacket();
-				if(np != null && np.getType() == NetworkPacket.TYPE_RTS && np.getDest() == address){
+				if(np != null && np.getType() == NetworkPacket.TYPE_RTS && np.getDest() == address && np.getBurstLength() > 1){
+					startBurstReception(np);
+				}
+				else if(np != null && np.getType() == NetworkPacket.TYPE_RTS && np.getDest() == address){
 					// On receiving RTS packet:
 					int src = np.getSrc();
 					int seqNum = np.getSeqNum();
-					Integer lastSeqNum = rxSequenceTable.get(src);
-					if(lastSeqNum == null || seqNum == 0 || src != lastSeqNum){ // New, reset, or different sequence #
-						rxSequenceTable.put(src, seqNum);
+					if(seqNum == 0 || !getRxWindow(src).contains(seqNum)){ // New or reset sequence #
 						state = 0;
 						println("Received RTS packet packet from " + src + ", sending CTS", PrettyPrint.COLOR_CYAN);
 						// Send a CTS
 						NetworkPacket ctsPacket = NetworkPacket.CtsPacket(address, src, seqNum);
-						physicalTransceiver.send(ctsPacket.getData());
+						transmit(ctsPacket);
 						// Go to state WAIT_RXSTART
 						state = STATE_WAIT_RXSTART;
 						// Start a timer for rx to start
-						timer = System.currentTimeMillis();
+						timer = clock.currentTimeMillis();
 						timeout = TIMEOUT_RXSTART;
 					} else { // Same (duplicate) sequence #
-						rxSequenceTable.put(src, seqNum);
 						println("Duplicate RTS packet packet from " + src + ", sending ARX", PrettyPrint.COLOR_RED);
 						// Send an ARX
 						NetworkPacket arxPacket = NetworkPacket.ArxPacket(address, src, seqNum);
-						physicalTransceiver.send(arxPacket.getData());
+						transmit(arxPacket);
 					}
 				}
-				else if(manualPacket != null){
-					int finalNode = manualPacket.getFinalNode();
-					int nextNode = getRoute(finalNode);
-					this.queuedPacket = new NetworkPacket(address, nextNode, address, finalNode,
-							getSeqNumForNode(nextNode), 0, NetworkPacket.TYPE_DATA, manualPacket.getPayload());
-					manualPacket = null;
-					state = STATE_WAIT_TX;
+				else if(advertisementIntervalMs > 0 && clock.currentTimeMillis() >= nextAdvertisementMillis && !physicalTransceiver.rxInProgress()){
+					sendAdvertisement();
+				}
+				else if(forwardQueue.size() > 0 || sendQueue.size() > 0){
+					// When aggregating, hold the packets back until there are enough to fill an aggregate, or the oldest has waited long enough
+					if(maxAggregateLength == 0 || getQueuedLength() >= maxAggregateLength
+							|| clock.currentTimeMillis() >= getOldestQueuedMillis() + maxHoldMs)
+						startNextTransmission();
 				}
 			}
 			else if(state == STATE_WAIT_RXSTART) {
 				physicalTransceiver.setChannel(mainChannel);
-				if(!physicalTransceiver.rxInProgress() && System.currentTimeMillis() > timer + timeout){
+				if(!physicalTransceiver.rxInProgress() && clock.currentTimeMillis() > timer + timeout){
 					// If a timeout occurred, either they didn't hear our CTS
 					// or we didn't hear their data packet.
 					// Go back and wait for another RTS
@@ -117,114 +199,212 @@ public class ProtocolTransceiver implements Runnable, MonitorableTransceiver {
 							println("Received irrelevant packet from" + np.getSrc(), PrettyPrint.COLOR_WHITE);
 						state = STATE_WAIT_RTS;
 					}
-					else if(np.getSeqNum() != 0 && np.getSeqNum() == rxSequenceTable.get(np.getSrc())){ // Duplicate sequence #
-						state = 0;
-						// Send an ACK
+					else if(getRxWindow(np.getSrc()).contains(np.getSeqNum())){ // Duplicate sequence #
 						println("Received duplicate sequence packet from " + np.getSrc(), PrettyPrint.COLOR_RED);
-						NetworkPacket ackPacket = NetworkPacket.AckPacket(address, np.getSrc(), np.getSeqNum());
-						Utils.sleep(30); // TODO make this a defined delay
-						physicalTransceiver.send(ackPacket.getData());
+						sendAck(np);
 						state = STATE_WAIT_RTS;
 					} else { // Valid, Non-duplicate data packet.
-						int origin = np.getOrigin();
-						int finalNode = np.getFinalNode();
-						int nextNode = getRoute(finalNode);
+						getRxWindow(np.getSrc()).accept(np.getSeqNum());
+						receivedPayloadBytes += np.getPayloadLength();
 						println("Received valid data packet from " + np.getSrc(), PrettyPrint.COLOR_GREEN);
-						if(finalNode == address){ // If packet has arrived at the destination, forward that up the stack
-							if(receiveHandler != null){
-								receiveHandler.receive(np);
-								this.queuedPacket = receiveHandler.send();
-							} else {
-								System.out.println("Packet arrived at destination: " + np);
-								this.queuedPacket = null;
-							}
-						} else {
-							this.queuedPacket = new NetworkPacket(address, nextNode, origin, finalNode, getSeqNumForNode(nextNode), 0, NetworkPacket.TYPE_DATA, np.getPayload());
-						}
-						state = 0;
-						// Send an ACK
+						acceptDataPacket(np); // Anything to forward is queued, to be sent from WAIT_RTS with the rest of the queue
 						println("Acknowledging valid data packet", PrettyPrint.COLOR_GREEN);
-						NetworkPacket ackPacket = NetworkPacket.AckPacket(address, np.getSrc(), np.getSeqNum());
-						Utils.sleep(30); // TODO make this a defined delay
-						physicalTransceiver.send(ackPacket.getData());
-						if(finalNode == address) {
-							state = STATE_WAIT_RTS; // If packet was delivered, we are done
-							println("PACKET SUCCESSFULLY DELIVERED: " + np.getPayloadString(), PrettyPrint.COLOR_BLUE);
-						}
-						else
-							state = STATE_WAIT_TX; // Otherwise, keep forwarding it
+						sendAck(np);
+						state = STATE_WAIT_RTS;
 						timeout = 0;
 						backoffCount = 0;
-						timer = System.currentTimeMillis();
+						timer = clock.currentTimeMillis();
 					}
 				}
 			}
 			else if(state == STATE_WAIT_TX){
 				physicalTransceiver.setChannel(rtsChannel);
-				if(!physicalTransceiver.rxInProgress() && System.currentTimeMillis() > timer + timeout){ // Backoff expired, try RTS again
-					println("Sending RTS to " + queuedPacket.getDest(), PrettyPrint.COLOR_CYAN);
-
-					NetworkPacket rtsPacket = NetworkPacket.RtsPacket(address, queuedPacket.getDest(), queuedPacket.getSeqNum());
-					physicalTransceiver.send(rtsPacket.getData());
-					timer = System.currentTimeMillis();
-					// Next timeout is randomly chosen from (0, 2^backoffCount-1)
-					timeout = (int) (Math.random() * (Math.pow(2, Math.min(MAX_BACKOFF_COUNT, backoffCount)) * TIMEOUT_RTSBACKOFF));
-					if(backoffCount < MAX_BACKOFF_COUNT)
-						backoffCount++;
-					timeout = 1000;
+				if(!physicalTransceiver.rxInProgress() && clock.currentTimeMillis() > timer + timeout){ // Backoff expired, try RTS again
+					if(rtsAttempts > 0 && isRerouted(burst.isEmpty() ? queuedPacket : burst.get(0))){
+						reroute();
+					}
+					else if(advertisementIntervalMs > 0 && clock.currentTimeMillis() >= nextAdvertisementMillis){
+						sendAdvertisement(); // Keep advertising while the next hop doesn't answer, so neighbors don't drop our routes
+					}
+					else if(burst.isEmpty()){
+						println("Sending RTS to " + queuedPacket.getDest(), PrettyPrint.COLOR_CYAN);
+
+						NetworkPacket rtsPacket = NetworkPacket.RtsPacket(address, queuedPacket.getDest(), queuedPacket.getSeqNum());
+						transmit(rtsPacket);
+						if(rtsAttempts++ > 0){ // The last RTS got no CTS, or the data no ACK
+							retry(queuedPacket);
+							linkEstimator.failure(queuedPacket.getDest());
+						}
+					} else {
+						// Reserve the channel from the first unacknowledged packet to the last
+						NetworkPacket first = burst.get(0);
+						int span = SequenceWindow.offset(first.getSeqNum(), burst.get(burst.size() - 1).getSeqNum()) + 1;
+						println("Sending RTS for a burst of " + burst.size() + " to " + first.getDest(), PrettyPrint.COLOR_CYAN);
+						NetworkPacket rtsPacket = NetworkPacket.BurstRtsPacket(address, first.getDest(), first.getSeqNum(), span);
+						transmit(rtsPacket);
+						if(rtsAttempts++ > 0){
+							for(NetworkPacket frame : burst)
+								retry(frame);
+							linkEstimator.failure(first.getDest());
+						}
+					}
+					if(state == STATE_WAIT_TX){ // Unless the frames were rerouted
+						timer = clock.currentTimeMillis();
+						// Next timeout is the time a CTS takes to come back, plus a backoff randomly chosen from (0, 2^backoffCount-1)
+						timeout = TIMEOUT_CTSRECV + (int) (random.nextDouble() * (Math.pow(2, Math.min(MAX_BACKOFF_COUNT, backoffCount)) * TIMEOUT_RTSBACKOFF));
+						if(backoffCount < MAX_BACKOFF_COUNT)
+							backoffCount++;
+					}
 				}
-				NetworkPacket np = getNetworkPacket();
+				NetworkPacket np = state == STATE_WAIT_TX ? getNetworkPacket() : null;
 				if(np != null && np.getDest() == address && !np.corrupt()){
-					if(np.getType() == NetworkPacket.TYPE_CTS) {
+					if(np.getType() == NetworkPacket.TYPE_CTS || np.getType() == NetworkPacket.TYPE_ARX)
+						linkEstimator.success(np.getSrc());
+					if(np.getType() == NetworkPacket.TYPE_CTS && !burst.isEmpty()) {
+						println("Received CTS from " + np.getSrc() + ", sending burst", PrettyPrint.COLOR_CYAN);
+						sendBurst();
+					}
+					else if(np.getType() == NetworkPacket.TYPE_CTS) {
 						println("Received CTS from " + np.getDest(), PrettyPrint.COLOR_CYAN);
 						// If we received a CTS indicating that we are allowed to send,
 						// Send the message to the next node and wait for an ACK
 						state = 0;
 						physicalTransceiver.setChannel(mainChannel);
-						Utils.sleep(30); // TODO make this a defined delay
-						physicalTransceiver.send(this.queuedPacket.getData());
+						clock.sleep(TURNAROUND_DELAY);
+						// The tracker rides along with the frame, so the next node can carry on tracking it
+						int length = transmit(this.queuedPacket, getTrackerTag(this.queuedPacket));
+						dataAirtimeMs += physicalTransceiver.getModulation().getAirtimeMillis(length);
 						state = STATE_WAIT_ACK;
-						timer = System.currentTimeMillis();
+						timer = clock.currentTimeMillis();
 						timeout = TIMEOUT_ACKRECV;
 					}
 					if(np.getType() == NetworkPacket.TYPE_ARX) {
 						println("Received ARX from " + np.getDest() + ", data was already forwarded", PrettyPrint.COLOR_YELLOW);
 						state = STATE_WAIT_RTS;
 					}
+					if(np.getType() == NetworkPacket.TYPE_BACK && isBurstAck(np)) // The whole burst had already arrived
+						handleBlockAck(np);
 				}
 			}
 			else if(state == STATE_WAIT_ACK){
 				physicalTransceiver.setChannel(mainChannel);
-				if(!physicalTransceiver.rxInProgress() && System.currentTimeMillis() > timer + timeout){
+				if(!physicalTransceiver.rxInProgress() && clock.currentTimeMillis() > timer + timeout){
 					state = STATE_WAIT_TX;
 					println("Timed out waiting for ACK, sending again ", PrettyPrint.COLOR_YELLOW);
 				}
 				NetworkPacket np = getNetworkPacket();
 				if(np != null) {
-					Utils.sleep(0);
 					if (np.getDest() == address && !np.corrupt() && np.getType() == NetworkPacket.TYPE_ACK) {
 						println("Received ACK from " + np.getSrc() + ", ready for next packet", PrettyPrint.COLOR_GREEN);
+						linkEstimator.success(np.getSrc());
 						state = STATE_WAIT_RTS;
 					}
 				}
 			}
-			Utils.sleep(CYCLE_SLEEP);
+			else if(state == STATE_WAIT_BACK){
+				physicalTransceiver.setChannel(mainChannel);
+				if(!physicalTransceiver.rxInProgress() && clock.currentTimeMillis() > timer + timeout){
+					state = STATE_WAIT_TX;
+					println("Timed out waiting for block ACK, sending again ", PrettyPrint.COLOR_YELLOW);
+				}
+				NetworkPacket np = getNetworkPacket();
+				if(np != null && np.getDest() == address && !np.corrupt() && np.getType() == NetworkPacket.TYPE_BACK && isBurstAck(np))
+					handleBlockAck(np);
+			}
+			else if(state == STATE_WAIT_BURST){
+				physicalTransceiver.setChannel(mainChannel);
+				NetworkPacket np = getNetworkPacket();
+				if(np != null && !np.corrupt() && np.getDest() == address && np.getSrc() == rxBurstSrc && np.getType() == NetworkPacket.TYPE_DATA){
+					int offset = SequenceWindow.offset(rxBurstStart, np.getSeqNum());
+					if(offset < rxBurstLength && (rxBurstBitmap >>> offset & 1) == 0){
+						rxBurstBitmap |= 1 << offset;
+						acceptBurstPacket(np);
+					}
+					// Wait for the next packet of the burst
+					timer = clock.currentTimeMillis();
+					timeout = TIMEOUT_RXSTART;
+				}
+				// Once the whole burst is in, or nothing more has arrived in time, acknowledge what we have
+				if(rxBurstBitmap == (1 << rxBurstLength) - 1
+						|| (!physicalTransceiver.rxInProgress() && clock.currentTimeMillis() > timer + timeout))
+					sendBlockAck();
+			}
+			// Run again straight away if anything changed, otherwise sleep until the PHY,
+			// a send request or a timer gives us something to do
+			if(state == lastState && !receivedThisCycle)
+				wakeSignal.await(getWakeTimeout());
 		}
 	}
 
+	/**
+	 * @return Milliseconds until the timer for the current state expires,
+	 * or -1 if it has already expired (or the state has no timer) and only an event can wake us
+	 */
+	private long getWakeTimeout(){
+		if(state == STATE_WAIT_RTS){ // Wake up to send held back packets, or the next route advertisement
+			long next = -1;
+			if(maxAggregateLength > 0 && (forwardQueue.size() > 0 || sendQueue.size() > 0))
+				next = getOldestQueuedMillis() + maxHoldMs;
+			if(advertisementIntervalMs > 0 && (next < 0 || nextAdvertisementMillis < next))
+				next = nextAdvertisementMillis;
+			long remaining = next - clock.currentTimeMillis();
+			return next >= 0 && remaining > 0 ? remaining : -1;
+		}
+		if(state != STATE_WAIT_RXSTART && state != STATE_WAIT_TX && state != STATE_WAIT_ACK
+				&& state != STATE_WAIT_BACK && state != STATE_WAIT_BURST)
+			return -1;
+		long remaining = timer + timeout + 1 - clock.currentTimeMillis();
+		return remaining > 0 ? remaining : -1;
+	}
+
 	/**
 	 * If a PhysicalPacket is available on the radio, convert it to a
-	 * NetworkPacket and return it
+	 * NetworkPacket and return it. The same instance is reused for every packet.
+	 * Packets that fail their checksum are counted and discarded.
 	 * @return received packet (or null if none is available)
 	 */
 	private NetworkPacket getNetworkPacket(){
 		PhysicalPacket p = physicalTransceiver.receive();
 		if(p == null) return null;
-		return new NetworkPacket(p.getData(), p.getChannel());
+		receivedThisCycle = true;
+		ByteBuffer frame = p.getBuffer();
+		if(!NetworkPacket.verify(frame)){
+			corruptPacketCount++;
+			println("Discarded corrupt packet", PrettyPrint.COLOR_RED);
+			return null;
+		}
+		try {
+			rxPacket.decode(frame, p.getChannel());
+			if(rxPacket.getType() == NetworkPacket.TYPE_ADV){ // Advertisements are handled whatever state we are in
+				receiveAdvertisement(rxPacket);
+				return null;
+			}
+			if(p.getTag() instanceof DeliveryTracker)
+				rxPacket.setTracker((DeliveryTracker) p.getTag());
+			else if(p.getTag() instanceof DeliveryTracker[])
+				rxPacket.setPartTrackers((DeliveryTracker[]) p.getTag());
+			return rxPacket;
+		} catch (IllegalStateException e) { // Corrupted badly enough to pass the checksum
+			corruptPacketCount++;
+			return null;
+		}
 	}
 
+	/**
+	 * @return Number of received packets that were discarded because they failed their checksum
+	 */
+	public long getCorruptPacketCount(){
+		return corruptPacketCount;
+	}
+
+	/**
+	 * Add a static route, which routing never replaces
+	 * @param dest Destination node, from 0 to 31 (addresses are 5 bits on the air)
+	 * @param next Node to send to, to get to dest, from 0 to 31
+	 * @throws IllegalArgumentException if either address is out of range
+	 */
 	public void addRoutingEntry(int dest, int next) {
-		routingTable.put(dest, next);
+		routingTable.addStatic(dest, next);
 	}
 
 	/**
@@ -233,12 +413,409 @@ public class ProtocolTransceiver implements Runnable, MonitorableTransceiver {
 	 * @return Node to send to, to get to dest (or -1 if not found)
 	 */
 	public int getRoute(int dest){
-		Integer rtn = routingTable.get(dest);
-		if(rtn == null)
-			return -1;
+		return routingTable.getNextHop(dest);
+	}
+
+	/**
+	 * Build routes automatically, by broadcasting route advertisements on the RTS channel and learning
+	 * from those of other nodes. Each link costs the number of attempts a packet is expected to take on it,
+	 * so routes avoid lossy links. Static routes from addRoutingEntry() still take precedence.
+	 * Call this before the transceiver is started.
+	 * @param advertisementIntervalMs Average interval between advertisements
+	 */
+	public void enableRouting(long advertisementIntervalMs){
+		if(advertisementIntervalMs <= 0)
+			throw new IllegalArgumentException("Invalid advertisement interval: " + advertisementIntervalMs);
+		this.advertisementIntervalMs = advertisementIntervalMs;
+	}
+
+	// Broadcast our routes, and schedule the next advertisement
+	private void sendAdvertisement(){
+		long millis = clock.currentTimeMillis();
+		if(nextAdvertisementMillis < 0){ // First one: spread the nodes out, so they don't all advertise at once
+			nextAdvertisementMillis = millis + (long) (random.nextDouble() * advertisementIntervalMs / 4);
+			return;
+		}
+		routingTable.expire(millis, ROUTE_TIMEOUT_ADVERTISEMENTS * advertisementIntervalMs);
+		NetworkPacket adv = NetworkPacket.AdvertisementPacket(address, advertisementSeqNum, routingTable.encode());
+		advertisementSeqNum = (advertisementSeqNum + 1) & 127;
+		int length = transmit(adv);
+		advertisementCount++;
+		advertisementAirtimeMs += physicalTransceiver.getModulation().getAirtimeMillis(length);
+		// Jitter the interval by up to a quarter, so advertisements from neighbors don't keep colliding
+		nextAdvertisementMillis = millis + advertisementIntervalMs - (long) (random.nextDouble() * advertisementIntervalMs / 4);
+	}
+
+	private void receiveAdvertisement(NetworkPacket adv){
+		if(advertisementIntervalMs == 0)
+			return;
+		try {
+			int changed = routingTable.update(adv.getSrc(), getLinkCost(adv.getSrc()), adv.getPayloadBuffer(), clock.currentTimeMillis());
+			if(changed > 0)
+				println("Learnt " + changed + " routes from " + adv.getSrc(), PrettyPrint.COLOR_PURPLE);
+		} catch (IllegalStateException e) { // Corrupted badly enough to pass the checksum
+			corruptPacketCount++;
+		}
+	}
+
+	// Cost of sending a packet to a neighbor, for choosing routes: a hop, times the attempts it is expected to take
+	private int getLinkCost(int neighbor){
+		return (int) Math.round(RoutingTable.HOP_COST * linkEstimator.getEtx(neighbor));
+	}
+
+	/**
+	 * Estimate the quality of the link to a neighbor from the latest exchanges with it
+	 * @return Expected number of attempts to get a packet to the neighbor (ETX), or 1 if nothing has been sent to it yet
+	 */
+	public double getLinkEtx(int neighbor){
+		return linkEstimator.getEtx(neighbor);
+	}
+
+	/**
+	 * @return true if routing has found a better next hop for a frame waiting to be sent, or lost its route
+	 */
+	private boolean isRerouted(NetworkPacket frame){
+		if(advertisementIntervalMs == 0)
+			return false;
+		routingTable.expire(clock.currentTimeMillis(), ROUTE_TIMEOUT_ADVERTISEMENTS * advertisementIntervalMs);
+		if(frame.isAggregate()) // The parts have their own final nodes, but all go through the same next hop
+			return getRoute(frame.getDest()) != frame.getDest();
+		return getRoute(frame.getFinalNode()) != frame.getDest();
+	}
+
+	// Put the frames waiting to be sent back in the queue, so they are sent along their new route
+	private void reroute(){
+		ArrayList<NetworkPacket> frames = new ArrayList<>(burst);
+		if(burst.isEmpty())
+			frames.add(queuedPacket);
+		burst.clear();
+		queuedPacket = null;
+		for(int x = frames.size() - 1; x >= 0; x--){
+			NetworkPacket frame = frames.get(x);
+			if(frame.isAggregate()){
+				ArrayList<NetworkPacket> parts = frame.split();
+				for(int y = parts.size() - 1; y >= 0; y--)
+					forwardQueue.addFirst(parts.get(y));
+			} else {
+				forwardQueue.addFirst(frame);
+			}
+		}
+		println("Route changed, rerouting " + frames.size() + " packets", PrettyPrint.COLOR_PURPLE);
+		state = STATE_WAIT_RTS;
+		backoffCount = 0;
+	}
+
+	/**
+	 * @return Number of nodes there is a route to
+	 */
+	public int getRouteCount(){
+		return routingTable.getRouteCount();
+	}
+
+	/**
+	 * @return Number of route advertisements sent
+	 */
+	public long getAdvertisementCount(){
+		return advertisementCount;
+	}
+
+	/**
+	 * @return Airtime spent on route advertisements, the control overhead of routing
+	 */
+	public long getAdvertisementAirtimeMs(){
+		return advertisementAirtimeMs;
+	}
+
+	/**
+	 * @return Airtime spent on data packets, including retransmissions
+	 */
+	public long getDataAirtimeMs(){
+		return dataAirtimeMs;
+	}
+
+	// Give up on a data packet that can't be routed any further
+	private void noRoute(NetworkPacket np){
+		println("No route to " + np.getFinalNode() + ", dropping packet", PrettyPrint.COLOR_RED);
+		if(np.getTracker() != null)
+			np.getTracker().fail(new NoRouteException(address, np.getFinalNode()));
+	}
+
+	/**
+	 * Take the next packet waiting to be sent, and as many after it as fit in a burst to the same next node.
+	 * Packets being forwarded go before new ones.
+	 */
+	private void startNextTransmission(){
+		NetworkPacket next = forwardQueue.isEmpty() ? sendQueue.poll() : forwardQueue.poll();
+		int nextNode = getRoute(next.getFinalNode());
+		if(nextNode < 0){
+			noRoute(next);
+			return;
+		}
+		burst.add(toDataPacket(next, nextNode));
+		while(burst.size() < windowSize){
+			next = forwardQueue.isEmpty() ? sendQueue.peek() : forwardQueue.peek();
+			if(next == null || getRoute(next.getFinalNode()) != nextNode)
+				break;
+			if(forwardQueue.isEmpty())
+				sendQueue.poll();
+			else
+				forwardQueue.poll();
+			burst.add(toDataPacket(next, nextNode));
+		}
+		if(burst.size() == 1) // Nothing to pipeline, send it on its own
+			queuedPacket = burst.remove(0);
+		rtsAttempts = 0;
+		state = STATE_WAIT_TX;
+	}
+
+	// Address a queued packet to the next node on its way, packing in the packets after it if aggregating
+	private NetworkPacket toDataPacket(NetworkPacket p, int nextNode){
+		if(maxAggregateLength > 0)
+			p = aggregate(p, nextNode);
+		NetworkPacket rtn = new NetworkPacket(address, nextNode, p.getOrigin(), p.getFinalNode(),
+				getSeqNumForNode(nextNode), 0, NetworkPacket.TYPE_DATA, p.getPayloadBuffer());
+		rtn.setTracker(p.getTracker());
+		rtn.setPartTrackers(p.getPartTrackers());
+		rtn.setQueuedMillis(p.getQueuedMillis());
 		return rtn;
 	}
 
+	/**
+	 * Take the queued packets after first that go to the same next node, as long as they fit in an aggregate with it
+	 * @return An aggregate of first and the packets taken, or first if none were
+	 */
+	private NetworkPacket aggregate(NetworkPacket first, int nextNode){
+		ArrayList<NetworkPacket> parts = null;
+		int length = NetworkPacket.AGGREGATE_HEADER_LENGTH + first.getPayloadLength();
+		while(true){
+			NetworkPacket next = forwardQueue.isEmpty() ? sendQueue.peek() : forwardQueue.peek();
+			if(next == null || getRoute(next.getFinalNode()) != nextNode
+					|| length + NetworkPacket.AGGREGATE_HEADER_LENGTH + next.getPayloadLength() > maxAggregateLength)
+				break;
+			if(forwardQueue.isEmpty())
+				sendQueue.poll();
+			else
+				forwardQueue.poll();
+			if(parts == null){
+				parts = new ArrayList<>();
+				parts.add(first);
+			}
+			parts.add(next);
+			length += NetworkPacket.AGGREGATE_HEADER_LENGTH + next.getPayloadLength();
+		}
+		if(parts == null)
+			return first;
+		println("Aggregating " + parts.size() + " packets for " + nextNode, PrettyPrint.COLOR_WHITE);
+		return NetworkPacket.AggregatePacket(parts);
+	}
+
+	// Payload bytes waiting to be sent, counting the header each would need in an aggregate
+	private int getQueuedLength(){
+		int length = sendQueue.getPayloadLength() + sendQueue.size() * NetworkPacket.AGGREGATE_HEADER_LENGTH;
+		for(NetworkPacket p : forwardQueue)
+			length += NetworkPacket.AGGREGATE_HEADER_LENGTH + p.getPayloadLength();
+		return length;
+	}
+
+	// The PHY carries the delivery trackers along with a frame, so the next node can carry on tracking its packets
+	private static Object getTrackerTag(NetworkPacket frame){
+		return frame.getPartTrackers() != null ? frame.getPartTrackers() : frame.getTracker();
+	}
+
+	// Count another attempt at sending each packet in a frame
+	private static void retry(NetworkPacket frame){
+		if(frame.getTracker() != null)
+			frame.getTracker().retry();
+		if(frame.getPartTrackers() != null)
+			for(DeliveryTracker tracker : frame.getPartTrackers())
+				if(tracker != null)
+					tracker.retry();
+	}
+
+	// After a CTS for the burst, send all its unacknowledged packets back to back
+	private void sendBurst(){
+		state = 0;
+		physicalTransceiver.setChannel(mainChannel);
+		clock.sleep(TURNAROUND_DELAY);
+		for(NetworkPacket frame : burst){
+			int length = transmit(frame, getTrackerTag(frame));
+			dataAirtimeMs += physicalTransceiver.getModulation().getAirtimeMillis(length);
+		}
+		state = STATE_WAIT_BACK;
+		timer = clock.currentTimeMillis();
+		timeout = TIMEOUT_ACKRECV;
+	}
+
+	// True if np is a block ACK from the node the burst is being sent to
+	private boolean isBurstAck(NetworkPacket np){
+		return !burst.isEmpty() && np.getSrc() == burst.get(0).getDest();
+	}
+
+	// Drop the packets a block ACK acknowledges, and reserve the channel again for any that are left
+	private void handleBlockAck(NetworkPacket np){
+		int acked = 0;
+		Iterator<NetworkPacket> it = burst.iterator();
+		while(it.hasNext()){
+			int offset = SequenceWindow.offset(np.getSeqNum(), it.next().getSeqNum());
+			if(offset < NetworkPacket.MAX_BURST_LENGTH && (np.getAckBitmap() >>> offset & 1) != 0){
+				it.remove();
+				acked++;
+			}
+		}
+		println("Received block ACK from " + np.getSrc() + " for " + acked + " packets, " + burst.size() + " left",
+				burst.isEmpty() ? PrettyPrint.COLOR_GREEN : PrettyPrint.COLOR_YELLOW);
+		if(burst.isEmpty())
+			linkEstimator.success(np.getSrc());
+		else
+			linkEstimator.failure(np.getSrc());
+		if(burst.isEmpty()){
+			state = STATE_WAIT_RTS;
+		} else { // Selective retransmit, straight away
+			if(burst.size() == 1) // An RTS for one packet is an ordinary RTS, so send the last one on its own
+				queuedPacket = burst.remove(0);
+			state = STATE_WAIT_TX;
+			timer = clock.currentTimeMillis();
+			timeout = 0;
+		}
+	}
+
+	// On an RTS for a burst, clear the sender to send it, unless every packet in it has already arrived
+	private void startBurstReception(NetworkPacket rts){
+		rxBurstSrc = rts.getSrc();
+		rxBurstStart = rts.getSeqNum();
+		rxBurstLength = rts.getBurstLength();
+		rxBurstBitmap = 0;
+		SequenceWindow window = getRxWindow(rxBurstSrc);
+		for(int x = 0; x < rxBurstLength; x++)
+			if(window.contains(SequenceWindow.advance(rxBurstStart, x)))
+				rxBurstBitmap |= 1 << x;
+		if(rxBurstBitmap == (1 << rxBurstLength) - 1){
+			println("Duplicate burst RTS from " + rxBurstSrc + ", sending block ACK", PrettyPrint.COLOR_RED);
+			transmit(NetworkPacket.BlockAckPacket(address, rxBurstSrc, rxBurstStart, rxBurstBitmap));
+		} else {
+			println("Received RTS for a burst of " + rxBurstLength + " from " + rxBurstSrc + ", sending CTS", PrettyPrint.COLOR_CYAN);
+			transmit(NetworkPacket.CtsPacket(address, rxBurstSrc, rxBurstStart));
+			state = STATE_WAIT_BURST;
+			timer = clock.currentTimeMillis();
+			timeout = TIMEOUT_RXSTART;
+		}
+	}
+
+	// Deliver or forward a new packet of the burst being received
+	private void acceptBurstPacket(NetworkPacket np){
+		SequenceWindow window = getRxWindow(np.getSrc());
+		window.accept(np.getSeqNum());
+		if(np.getSeqNum() == 0) // The sequence was reset, remember the rest of this burst again
+			for(int x = 1; x < rxBurstLength; x++)
+				if((rxBurstBitmap >>> x & 1) != 0)
+					window.accept(SequenceWindow.advance(rxBurstStart, x));
+		receivedPayloadBytes += np.getPayloadLength();
+		println("Received valid data packet " + np.getSeqNum() + " of burst from " + np.getSrc(), PrettyPrint.COLOR_GREEN);
+		acceptDataPacket(np);
+	}
+
+	// Deliver a new data packet, or queue it to be forwarded. Aggregates are split into their parts first.
+	private void acceptDataPacket(NetworkPacket np){
+		if(np.isAggregate()){
+			ArrayList<NetworkPacket> parts;
+			try {
+				parts = np.split();
+			} catch (IllegalStateException e) { // Corrupted badly enough to pass the checksum
+				corruptPacketCount++;
+				return;
+			}
+			println("Splitting aggregate of " + parts.size() + " packets", PrettyPrint.COLOR_WHITE);
+			for(NetworkPacket part : parts)
+				acceptDataPacket(part);
+			return;
+		}
+		DeliveryTracker tracker = np.getTracker();
+		if(tracker != null)
+			tracker.hop();
+		int finalNode = np.getFinalNode();
+		if(finalNode == address){
+			if(tracker != null)
+				tracker.delivered(clock.currentTimeMillis());
+			deliveredPacketCount++;
+			if(receiveHandler != null){
+				receiveHandler.receive(np.copy()); // np is reused, the handler may keep its copy
+				NetworkPacket reply = receiveHandler.send();
+				if(reply != null)
+					queueForward(reply);
+			} else {
+				System.out.println("Packet arrived at destination: " + np);
+			}
+			println("PACKET SUCCESSFULLY DELIVERED: " + np.getPayloadString(), PrettyPrint.COLOR_BLUE);
+		} else if(getRoute(finalNode) < 0){
+			noRoute(np);
+		} else {
+			queueForward(np.copy());
+		}
+	}
+
+	// Queue a received packet to be forwarded, noting when, so it isn't held back too long
+	private void queueForward(NetworkPacket p){
+		p.setQueuedMillis(clock.currentTimeMillis());
+		forwardQueue.add(p);
+	}
+
+	// Time the oldest packet waiting to be sent was queued. Both queues are in the order the packets were queued.
+	private long getOldestQueuedMillis(){
+		NetworkPacket forward = forwardQueue.peek();
+		NetworkPacket local = sendQueue.peek();
+		if(forward == null)
+			return local == null ? -1 : local.getQueuedMillis();
+		if(local == null)
+			return forward.getQueuedMillis();
+		return Math.min(forward.getQueuedMillis(), local.getQueuedMillis());
+	}
+
+	// Send a control frame, waiting until it has been sent
+	private int transmit(NetworkPacket frame){
+		return transmit(frame, null);
+	}
+
+	/**
+	 * Encode a frame into the transmit buffer and send it, waiting until it has been sent.
+	 * The PHY copies the frame, so the buffer is free for the next one straight away.
+	 * @param tag simulator-side data to carry along with the frame
+	 * @return Length of the frame in bytes
+	 */
+	private int transmit(NetworkPacket frame, Object tag){
+		txBuffer.clear();
+		int length = frame.encode(txBuffer);
+		txBuffer.flip();
+		physicalTransceiver.sendCopy(txBuffer, tag, true);
+		return length;
+	}
+
+	// Acknowledge a data packet, once its sender has had time to switch to receiving
+	private void sendAck(NetworkPacket np){
+		state = 0;
+		NetworkPacket ackPacket = NetworkPacket.AckPacket(address, np.getSrc(), np.getSeqNum());
+		clock.sleep(TURNAROUND_DELAY);
+		transmit(ackPacket);
+	}
+
+	// Tell the sender of the burst which of its packets arrived
+	private void sendBlockAck(){
+		state = 0;
+		println("Acknowledging burst from " + rxBurstSrc + ": " + Integer.toBinaryString(rxBurstBitmap), PrettyPrint.COLOR_GREEN);
+		NetworkPacket backPacket = NetworkPacket.BlockAckPacket(address, rxBurstSrc, rxBurstStart, rxBurstBitmap);
+		clock.sleep(TURNAROUND_DELAY);
+		transmit(backPacket);
+		state = STATE_WAIT_RTS;
+	}
+
+	private SequenceWindow getRxWindow(int nodeId){
+		SequenceWindow window = rxWindowTable.get(nodeId);
+		if(window == null){
+			window = new SequenceWindow();
+			rxWindowTable.put(nodeId, window);
+		}
+		return window;
+	}
+
 	private int getSeqNumForNode(int nodeId){
 		Integer rtn = txSequenceTable.get(nodeId);
 		if(rtn == null)
@@ -255,23 +832,168 @@ public class ProtocolTransceiver implements Runnable, MonitorableTransceiver {
 		physicalTransceiver.addNeighbor(neighbor.physicalTransceiver, loss);
 	}
 
+	public void addNeighbor(ProtocolTransceiver neighbor, int loss, double bitErrorRate) {
+		physicalTransceiver.addNeighbor(neighbor.physicalTransceiver, loss, bitErrorRate);
+	}
+
+	public void addNeighbor(ProtocolTransceiver neighbor, int loss, double bitErrorRate, double rssiDbm) {
+		physicalTransceiver.addNeighbor(neighbor.physicalTransceiver, loss, bitErrorRate, rssiDbm);
+	}
+
+	public PhysicalTransceiver getPhysicalTransceiver() {
+		return physicalTransceiver;
+	}
+
 	public void startThread(){
-		new Thread(physicalTransceiver).start();
-		new Thread(this).start();
+		clock.startProcess(physicalTransceiver, "PHY " + address);
+		clock.startProcess(this, "Protocol " + address);
 	}
 
-	private NetworkPacket receiveFromPHY(){
-		PhysicalPacket p = physicalTransceiver.receive();
-		if(p == null)
-			return null;
-		NetworkPacket n = new NetworkPacket(p.getData(), p.getChannel());
-		return n;
+
+	/**
+	 * Queue data to send to another node, without waiting. The data is copied, so the caller may reuse the array.
+	 * @param finalNode Node to deliver the data to
+	 * @param data Data to send, of up to MAX_DATA_LENGTH bytes
+	 * @return true if the data was queued, false if it was dropped because the send queue is full
+	 */
+	public boolean send(int finalNode, byte[] data){
+		return send(finalNode, data, 0);
+	}
+
+	/**
+	 * Queue data to send to another node, waiting for space in the send queue if it is full.
+	 * Unless timeoutMs is 0, this must be called from a process started on this transceiver's clock.
+	 * @param finalNode Node to deliver the data to
+	 * @param data Data to send, of up to MAX_DATA_LENGTH bytes
+	 * @param timeoutMs Maximum time to wait for space: 0 to not wait, or a negative number to wait forever
+	 * @return true if the data was queued, false if it was dropped because the send queue stayed full
+	 */
+	public boolean send(int finalNode, byte[] data, long timeoutMs){
+		return enqueue(finalNode, data, null, timeoutMs);
+	}
+
+	private boolean enqueue(int finalNode, byte[] data, DeliveryTracker tracker, long timeoutMs){
+		if(data.length > MAX_DATA_LENGTH)
+			throw new IllegalArgumentException("Data too long for one packet: " + data.length + " bytes (use a FragmentationLayer)");
+		NetworkPacket tx = new NetworkPacket(0, 0, address, finalNode, 0, 0, NetworkPacket.TYPE_DATA, data.clone());
+		tx.setTracker(tracker);
+		if(!sendQueue.offer(tx, timeoutMs))
+			return false;
+		wakeSignal.raise();
+		return true;
+	}
+
+	/**
+	 * Queue data to send to another node, and follow it until it arrives. Does not wait.
+	 * The future completes with the delivery latency, hop count and retry count once the final node accepts
+	 * the packet. It fails with a RejectedExecutionException if the send queue is full, a NoRouteException if
+	 * a node on the way has no route, or a TimeoutException if the packet hasn't arrived within timeoutMs.
+	 * A packet that times out may still be delivered later, but the future is not completed again.
+	 * @param finalNode Node to deliver the data to
+	 * @param data Data to send, of up to MAX_DATA_LENGTH bytes, which is copied
+	 * @param timeoutMs Time to wait for delivery before failing the future
+	 * @return Future for the delivery outcome
+	 */
+	public CompletableFuture<DeliveryReport> sendAsync(int finalNode, byte[] data, long timeoutMs){
+		DeliveryTracker tracker = new DeliveryTracker(clock.currentTimeMillis());
+		if(!enqueue(finalNode, data, tracker, 0)){
+			tracker.fail(new RejectedExecutionException("Send queue of node " + address + " is full"));
+		} else {
+			Cancellable timeout = clock.schedule(timeoutMs, () -> tracker.fail(new TimeoutException("Packet to " + finalNode + " not delivered within " + timeoutMs + "ms")));
+			tracker.getFuture().whenComplete((report, e) -> timeout.cancel());
+		}
+		return tracker.getFuture();
+	}
+
+	/**
+	 * Queue data to send to another node, waiting as long as it takes for space in the send queue.
+	 * This must be called from a process started on this transceiver's clock.
+	 * @param finalNode Node to deliver the data to
+	 * @param data Data to send, of up to MAX_DATA_LENGTH bytes
+	 */
+	public void sendBlocking(int finalNode, byte[] data){
+		send(finalNode, data, -1);
+	}
+
+	/**
+	 * Pack small packets going to the same next node into one data packet, so they share the cost of the
+	 * preamble and the RTS/CTS/ACK exchange. Nodes forwarding the packets split them back out and aggregate
+	 * them again, possibly with packets from other origins. Call this before the transceiver is started.
+	 * The hold time applies at each hop: a packet crossing n aggregating nodes may be held back for up to
+	 * n * maxHoldMs in total, on top of the time it takes to send.
+	 * @param maxLength Maximum payload of an aggregate in bytes, with a 3 byte header per packet, or 0 to not aggregate
+	 * @param maxHoldMs Maximum time a packet is held back at each hop, from when it was queued there,
+	 * waiting for enough packets to fill an aggregate
+	 */
+	public void setAggregation(int maxLength, int maxHoldMs){
+		if(maxLength < 0 || maxLength > MAX_DATA_LENGTH)
+			throw new IllegalArgumentException("Invalid aggregate length: " + maxLength);
+		this.maxAggregateLength = maxLength;
+		this.maxHoldMs = maxHoldMs;
+	}
+
+	/**
+	 * Set how many data packets one RTS/CTS reservation may carry to the next node. They are sent back to
+	 * back and answered with a single block ACK, and only the ones that didn't arrive are sent again.
+	 * Call this before the transceiver is started.
+	 * @param windowSize Packets per burst, from 1 (every packet on its own, stop-and-wait) to NetworkPacket.MAX_BURST_LENGTH
+	 */
+	public void setWindowSize(int windowSize){
+		if(windowSize < 1 || windowSize > NetworkPacket.MAX_BURST_LENGTH)
+			throw new IllegalArgumentException("Invalid window size: " + windowSize);
+		this.windowSize = windowSize;
+	}
+
+	public int getWindowSize(){
+		return windowSize;
+	}
+
+	/**
+	 * Set how many packets can wait in the send queue. Queued packets are discarded.
+	 * Call this before the transceiver is started.
+	 * @param capacity Maximum number of queued packets
+	 */
+	public void setSendQueueCapacity(int capacity){
+		this.sendQueue = new SendQueue(capacity, clock);
 	}
 
+	/**
+	 * @return Number of packets waiting in the send queue
+	 */
+	public int getSendQueueDepth(){
+		return sendQueue.size();
+	}
 
-	public void send(int finalNode, byte[] data){
-		NetworkPacket tx = new NetworkPacket(0, 0, 0, finalNode, 0, 0, NetworkPacket.TYPE_DATA, data);
-		this.manualPacket = tx;
+	public int getSendQueueCapacity(){
+		return sendQueue.getCapacity();
+	}
+
+	/**
+	 * @return Number of packets accepted into the send queue
+	 */
+	public long getQueuedPacketCount(){
+		return sendQueue.getEnqueuedCount();
+	}
+
+	/**
+	 * @return Number of packets dropped because the send queue was full
+	 */
+	public long getDroppedSendCount(){
+		return sendQueue.getDroppedCount();
+	}
+
+	/**
+	 * @return Number of data packets that arrived at this node as their final destination
+	 */
+	public long getDeliveredPacketCount(){
+		return deliveredPacketCount;
+	}
+
+	/**
+	 * @return Payload bytes of the new data packets this node accepted from its neighbors, for measuring per-hop goodput
+	 */
+	public long getReceivedPayloadBytes(){
+		return receivedPayloadBytes;
 	}
 
 	public void setReceiveHandler(ReceiveHandler receiveHandler) {
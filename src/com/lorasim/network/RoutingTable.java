@@ -0,0 +1,141 @@
+package com.lorasim.network;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Next hop to every node, indexed by address so a lookup on the forwarding path is one array access.
+ * Routes are either static, or learnt by distance vector from the route advertisements of neighbors.
+ * A route's metric is the sum of the costs of the links along it. A learnt route is replaced when a
+ * neighbor advertises a cheaper one, follows every change its next hop advertises, and is dropped
+ * when its next hop hasn't advertised it for a while.
+ */
+class RoutingTable {
+	static final int MAX_NODES = 32; // Addresses are 5 bits
+	static final int HOP_COST = 10; // Cost of a link that delivers every packet first time
+	static final int INFINITY = 0x3FFF; // Metric of an unreachable node, and the largest that can be advertised
+	static final int ENTRY_LENGTH = 3; // Destination, next hop and metric of a route in an advertisement
+
+	private int address;
+	private int[] nextHop = new int[MAX_NODES]; // -1 if there is no route
+	private int[] metric = new int[MAX_NODES];
+	private long[] updatedMillis = new long[MAX_NODES]; // Last time the next hop advertised the route
+	private boolean[] fixed = new boolean[MAX_NODES]; // Static routes, which are never learnt over or dropped
+
+	RoutingTable(int address) {
+		this.address = address;
+		Arrays.fill(nextHop, -1);
+		Arrays.fill(metric, INFINITY);
+	}
+
+	/**
+	 * @return Node to send to, to get to dest, or -1 if there is no route
+	 */
+	int getNextHop(int dest) {
+		if (dest < 0 || dest >= MAX_NODES)
+			return -1;
+		return nextHop[dest];
+	}
+
+	int getMetric(int dest) {
+		if (dest < 0 || dest >= MAX_NODES)
+			return INFINITY;
+		return metric[dest];
+	}
+
+	/**
+	 * @throws IllegalArgumentException if either address is outside 0..MAX_NODES-1
+	 */
+	void addStatic(int dest, int next) {
+		if (dest < 0 || dest >= MAX_NODES || next < 0 || next >= MAX_NODES)
+			throw new IllegalArgumentException("Route to " + dest + " via " + next + " is outside the address range 0-" + (MAX_NODES - 1));
+		nextHop[dest] = next;
+		metric[dest] = HOP_COST;
+		fixed[dest] = true;
+	}
+
+	/**
+	 * Learn the routes in an advertisement from a neighbor
+	 * @param neighbor node that sent the advertisement
+	 * @param linkCost cost of the link to the neighbor
+	 * @param routes encoded routes of the neighbor, from its position to its limit
+	 * @param millis current time
+	 * @return Number of routes that were added or changed next hop
+	 * @throws IllegalStateException if the advertisement is malformed
+	 */
+	int update(int neighbor, int linkCost, ByteBuffer routes, long millis) {
+		if (routes.remaining() % ENTRY_LENGTH != 0)
+			throw new IllegalStateException("Malformed route advertisement (length " + routes.remaining() + ")");
+		int changed = 0;
+		while (routes.hasRemaining()) {
+			int entry = ((routes.get() & 0xFF) << 16) | ((routes.get() & 0xFF) << 8) | (routes.get() & 0xFF);
+			int dest = entry >>> 19;
+			int via = (entry >>> 14) & 31;
+			int cost = Math.min(INFINITY, (entry & INFINITY) + linkCost);
+			if (dest == address || fixed[dest])
+				continue;
+			if (via == address) // The neighbor reaches dest through us (split horizon)
+				cost = INFINITY;
+			if (nextHop[dest] == neighbor) { // Follow our next hop, whether the route got better or worse
+				metric[dest] = cost;
+				updatedMillis[dest] = millis;
+				if (cost >= INFINITY) {
+					nextHop[dest] = -1;
+					changed++;
+				}
+			} else if (cost < metric[dest]) {
+				nextHop[dest] = neighbor;
+				metric[dest] = cost;
+				updatedMillis[dest] = millis;
+				changed++;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Drop the learnt routes that their next hop hasn't advertised for timeoutMs
+	 * @return Number of routes dropped
+	 */
+	int expire(long millis, long timeoutMs) {
+		int expired = 0;
+		for (int dest = 0; dest < MAX_NODES; dest++) {
+			if (nextHop[dest] >= 0 && !fixed[dest] && updatedMillis[dest] + timeoutMs < millis) {
+				nextHop[dest] = -1;
+				metric[dest] = INFINITY;
+				expired++;
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * @return Every route, including the route to this node, encoded for an advertisement
+	 */
+	byte[] encode() {
+		ByteBuffer routes = ByteBuffer.allocate(ENTRY_LENGTH * MAX_NODES);
+		for (int dest = 0; dest < MAX_NODES; dest++) {
+			if (dest == address)
+				putEntry(routes, dest, address, 0);
+			else if (nextHop[dest] >= 0)
+				putEntry(routes, dest, nextHop[dest], metric[dest]);
+		}
+		return Arrays.copyOf(routes.array(), routes.position());
+	}
+
+	private static void putEntry(ByteBuffer routes, int dest, int via, int cost) {
+		int entry = (dest << 19) | ((via & 31) << 14) | Math.min(cost, INFINITY);
+		routes.put((byte) (entry >>> 16)).put((byte) (entry >>> 8)).put((byte) entry);
+	}
+
+	/**
+	 * @return Number of nodes there is a route to
+	 */
+	int getRouteCount() {
+		int count = 0;
+		for (int dest = 0; dest < MAX_NODES; dest++)
+			if (nextHop[dest] >= 0)
+				count++;
+		return count;
+	}
+}
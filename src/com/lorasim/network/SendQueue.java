@@ -0,0 +1,105 @@
+package com.lorasim.network;
+
+import com.lorasim.sim.Signal;
+import com.lorasim.sim.SimClock;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded queue of packets waiting to be sent, shared by the sending threads and the protocol loop.
+ * Senders that wait for space block on a clock Signal, so waiting works on simulated time too.
+ * Blocking and timed offers must be called from a process started on the clock.
+ */
+class SendQueue {
+	private ArrayDeque<NetworkPacket> packets;
+	private ArrayDeque<Signal> waiters; // One per sender waiting for space, in the order they started waiting
+	private int capacity;
+	private SimClock clock;
+	private long enqueuedCount = 0;
+	private long droppedCount = 0;
+
+	SendQueue(int capacity, SimClock clock) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Send queue capacity must be at least 1");
+		this.capacity = capacity;
+		this.clock = clock;
+		this.packets = new ArrayDeque<>();
+		this.waiters = new ArrayDeque<>();
+	}
+
+	/**
+	 * Add a packet, waiting up to timeoutMs for space if the queue is full
+	 * @param timeoutMs Maximum time to wait: 0 to not wait at all, or a negative number to wait forever
+	 * @return true if the packet was queued, false if it was dropped because the queue stayed full
+	 */
+	boolean offer(NetworkPacket p, long timeoutMs) {
+		long deadline = clock.currentTimeMillis() + timeoutMs;
+		Signal space = null;
+		while (true) {
+			synchronized (this) {
+				if (space != null)
+					waiters.remove(space);
+				if (packets.size() < capacity) {
+					p.setQueuedMillis(clock.currentTimeMillis());
+					packets.add(p);
+					enqueuedCount++;
+					if (!waiters.isEmpty() && packets.size() < capacity)
+						waiters.peek().raise(); // Still room: let the next waiting sender in too
+					return true;
+				}
+				long remaining = deadline - clock.currentTimeMillis();
+				if (timeoutMs == 0 || (timeoutMs > 0 && remaining <= 0)) {
+					droppedCount++;
+					return false;
+				}
+				if (space == null)
+					space = clock.newSignal();
+				waiters.add(space);
+			}
+			space.await(timeoutMs < 0 ? -1 : Math.max(1, deadline - clock.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * @return The oldest queued packet, or null if the queue is empty
+	 */
+	synchronized NetworkPacket poll() {
+		NetworkPacket p = packets.poll();
+		if (p != null && !waiters.isEmpty())
+			waiters.peek().raise();
+		return p;
+	}
+
+	/**
+	 * @return The oldest queued packet without removing it, or null if the queue is empty
+	 */
+	synchronized NetworkPacket peek() {
+		return packets.peek();
+	}
+
+	/**
+	 * @return Total payload length of the queued packets
+	 */
+	synchronized int getPayloadLength() {
+		int length = 0;
+		for (NetworkPacket p : packets)
+			length += p.getPayloadLength();
+		return length;
+	}
+
+	synchronized int size() {
+		return packets.size();
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	synchronized long getEnqueuedCount() {
+		return enqueuedCount;
+	}
+
+	synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+}
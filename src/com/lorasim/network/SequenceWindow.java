@@ -0,0 +1,71 @@
+package com.lorasim.network;
+
+/**
+ * Sequence numbers recently accepted from one node, for spotting duplicates when packets
+ * can arrive out of order (as in a burst with retransmissions). Sequence numbers count up from
+ * 1 to 127 and wrap back to 1; 0 resets the sequence. A sender never has more than a burst of
+ * packets outstanding, so accepting a number forgets the numbers further ahead of it than that,
+ * which are left over from the previous time round.
+ */
+class SequenceWindow {
+	private long low, high; // Bit n set if sequence # n (0-127) was recently accepted
+
+	/**
+	 * @return true if seqNum was recently accepted. Sequence # 0 is never a duplicate.
+	 */
+	boolean contains(int seqNum) {
+		if (seqNum <= 0 || seqNum > 127)
+			return false;
+		return seqNum < 64 ? (low >>> seqNum & 1) != 0 : (high >>> (seqNum - 64) & 1) != 0;
+	}
+
+	void accept(int seqNum) {
+		if (seqNum == 0) { // Reset
+			low = high = 0;
+			return;
+		}
+		int next = advance(seqNum, NetworkPacket.MAX_BURST_LENGTH);
+		for (int x = NetworkPacket.MAX_BURST_LENGTH; x < 63; x++) {
+			next = next(next);
+			clear(next);
+		}
+		if (seqNum < 64)
+			low |= 1L << seqNum;
+		else
+			high |= 1L << (seqNum - 64);
+	}
+
+	private void clear(int seqNum) {
+		if (seqNum < 64)
+			low &= ~(1L << seqNum);
+		else
+			high &= ~(1L << (seqNum - 64));
+	}
+
+	/**
+	 * @return The sequence # after seqNum
+	 */
+	static int next(int seqNum) {
+		return seqNum >= 127 ? 1 : seqNum + 1;
+	}
+
+	/**
+	 * @return The sequence # offset steps after seqNum
+	 */
+	static int advance(int seqNum, int offset) {
+		for (int x = 0; x < offset; x++)
+			seqNum = next(seqNum);
+		return seqNum;
+	}
+
+	/**
+	 * @return Number of steps from sequence # from to sequence # to (0 if they are equal)
+	 */
+	static int offset(int from, int to) {
+		if (to >= from)
+			return to - from;
+		if (to == 0)
+			return Integer.MAX_VALUE; // Nothing comes before a reset
+		return 127 - from + to;
+	}
+}
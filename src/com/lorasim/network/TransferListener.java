@@ -0,0 +1,28 @@
+package com.lorasim.network;
+
+/**
+ * Callbacks fired by a FragmentationLayer as large payloads arrive.
+ * They run on the protocol's process, so they must return quickly and must not block.
+ */
+public interface TransferListener {
+	/**
+	 * The first fragment of a transfer arrived. Its data can be read as it arrives.
+	 * @param transfer transfer that started
+	 */
+	public default void onTransferStarted(IncomingTransfer transfer) {
+	}
+
+	/**
+	 * Every fragment of a transfer has arrived
+	 * @param transfer transfer that completed
+	 */
+	public default void onTransferComplete(IncomingTransfer transfer) {
+	}
+
+	/**
+	 * A transfer was dropped before it completed, to make room for another
+	 * @param transfer transfer that was evicted
+	 */
+	public default void onTransferEvicted(IncomingTransfer transfer) {
+	}
+}
@@ -0,0 +1,157 @@
+package com.lorasim.physical;
+
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+
+/**
+ * Receptions in the airspace of a single channel, as seen by one receiver.
+ * Receptions are always added at the time they start transmitting, so in-flight receptions
+ * only need to be ordered by end time. Collisions are resolved once, when a reception is added:
+ * each of a pair of overlapping receptions survives only if it is strong enough compared to the other,
+ * which depends on their spreading factors (capture effect and SF orthogonality).
+ * Once a reception finishes it is only kept if a demodulator was locked on to it, until it is
+ * taken by the PHY or expires. Finished receptions are in order of end time, so expired ones are
+ * always at the front and are evicted in amortized O(1) time.
+ * A receiver that tunes away from a channel keeps its airspace, so tuning back costs nothing.
+ * Receptions the receiver locked on to before it last tuned in are lost, since the radio left them.
+ */
+class ChannelAirspace {
+	private PriorityQueue<Reception> inFlight; // Still transmitting, ordered by end time
+	private ArrayDeque<Reception> finished; // Locked on to and done transmitting, in the order they finished
+	private int lockedInFlight = 0; // Number of in-flight receptions a demodulator is locked on to
+	private int receivableInFlight = 0; // Number of those that have not been interfered with
+	private int expiryMs; // Finished receptions are dropped this long after they end
+	private boolean listening = false; // The receiver is tuned to this channel
+	private long listeningSince = Long.MIN_VALUE; // Time the receiver last tuned to this channel
+
+	ChannelAirspace(int expiryMs) {
+		this.expiryMs = expiryMs;
+		inFlight = new PriorityQueue<>((a, b) -> Long.compare(a.getEndMillis(), b.getEndMillis()));
+		finished = new ArrayDeque<>();
+	}
+
+	/**
+	 * Add a reception that starts transmitting now, and mark it and any receptions it overlaps
+	 * as interfered unless they survive the overlap
+	 * @param r reception to add
+	 * @param millis current time
+	 */
+	void add(Reception r, long millis) {
+		advance(millis);
+		for (Reception rxd : inFlight) {
+			if (rxd.collidesWith(r)) {
+				if (!rxd.survives(r))
+					interfere(rxd);
+				if (!r.survives(rxd))
+					r.markInterfered();
+			}
+		}
+		inFlight.add(r);
+	}
+
+	/**
+	 * Start listening on this channel. Nothing locked on to before now can be received.
+	 * @param millis current time
+	 */
+	void listen(long millis) {
+		listening = true;
+		listeningSince = millis;
+		lockedInFlight = 0;
+		receivableInFlight = 0;
+	}
+
+	void stopListening() {
+		listening = false;
+	}
+
+	boolean isListening() {
+		return listening;
+	}
+
+	/**
+	 * @return Time the receiver last tuned to this channel. Only packets that started after this can be locked on to.
+	 */
+	long getListeningSince() {
+		return listeningSince;
+	}
+
+	// True if r was locked on to since the receiver last tuned to this channel
+	private boolean isCurrentLock(Reception r) {
+		return r.isLocked() && r.packet.getMillis() > listeningSince;
+	}
+
+	/**
+	 * Lock a demodulator on to an in-flight reception. It stays busy until the reception finishes.
+	 */
+	void lock(Reception r) {
+		r.markLocked();
+		lockedInFlight++;
+		if (!r.isInterfered())
+			receivableInFlight++;
+	}
+
+	// Mark an in-flight reception as interfered, and stop counting it as receivable if it was
+	private void interfere(Reception r) {
+		if (isCurrentLock(r) && !r.isInterfered())
+			receivableInFlight--;
+		r.markInterfered();
+	}
+
+	/**
+	 * @return Number of demodulators busy with in-flight receptions on this channel
+	 */
+	int getLockedInFlight() {
+		return lockedInFlight;
+	}
+
+	/**
+	 * @param millis current time
+	 * @return true if a demodulator is locked on to a reception that is still transmitting and has not been interfered with
+	 */
+	boolean isReceiving(long millis) {
+		advance(millis);
+		return receivableInFlight > 0;
+	}
+
+	/**
+	 * Move receptions that have finished transmitting out of the in-flight queue, and drop
+	 * finished receptions that have expired
+	 * @param millis current time
+	 */
+	void advance(long millis) {
+		while (!inFlight.isEmpty() && inFlight.peek().getEndMillis() < millis) {
+			Reception r = inFlight.poll();
+			// Receptions no demodulator is locked on to can never be received, so they are discarded
+			if (isCurrentLock(r)) {
+				lockedInFlight--;
+				if (!r.isInterfered())
+					receivableInFlight--;
+				finished.add(r);
+			}
+		}
+		while (!finished.isEmpty() && finished.peek().getEndMillis() + expiryMs < millis)
+			finished.poll();
+	}
+
+	/**
+	 * @return Time the next in-flight reception finishes, or -1 if there are none
+	 */
+	long getNextEndMillis() {
+		if (inFlight.isEmpty())
+			return -1;
+		return inFlight.peek().getEndMillis();
+	}
+
+	/**
+	 * Remove and return the oldest finished reception
+	 * @return the reception, or null if none have finished
+	 */
+	Reception pollFinished() {
+		Reception r;
+		while ((r = finished.poll()) != null) {
+			if (r.packet.getMillis() > listeningSince)
+				return r;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,86 @@
+package com.lorasim.physical;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A gateway (base station) radio, like the SX1301/SX1302 based concentrators.
+ * It listens on several channels at once, decodes any spreading factor, and has a number of
+ * demodulator paths so it can receive that many packets at the same time. Received packets are
+ * buffered for the upper layer instead of overwriting each other.
+ * It still transmits on a single channel, which can be changed without affecting reception.
+ */
+public class GatewayTransceiver extends PhysicalTransceiver {
+	public static final int DEFAULT_DEMODULATOR_PATHS = 8;
+
+	private int demodulatorPaths;
+	private Set<Integer> channels; // Channels listened on
+
+	/**
+	 * Create a gateway with 8 demodulator paths
+	 * @param channels channels to listen on. The first is also the one transmitted on.
+	 */
+	public GatewayTransceiver(int address, Medium medium, int... channels) {
+		this(address, medium, DEFAULT_DEMODULATOR_PATHS, channels);
+	}
+
+	/**
+	 * @param demodulatorPaths number of packets the gateway can receive at the same time
+	 * @param channels channels to listen on. The first is also the one transmitted on.
+	 */
+	public GatewayTransceiver(int address, Medium medium, int demodulatorPaths, int[] channels) {
+		super(address, medium);
+		if (demodulatorPaths < 1)
+			throw new IllegalArgumentException("A gateway needs at least one demodulator path");
+		this.demodulatorPaths = demodulatorPaths;
+		this.channels = ConcurrentHashMap.newKeySet();
+		stopListening(getChannel()); // Only listen on the channels given
+		for (int channel : channels)
+			addChannel(channel);
+		if (channels.length > 0)
+			setChannel(channels[0]);
+		// Every demodulator can have a packet waiting, plus as many again while the upper layer catches up
+		setReceiveBuffer(demodulatorPaths * 2, OverflowPolicy.DROP_OLDEST);
+	}
+
+	/**
+	 * Start listening on another channel
+	 * @param channel channel to add
+	 */
+	public void addChannel(int channel) {
+		if (channels.add(channel))
+			listen(channel);
+	}
+
+	/**
+	 * Stop listening on a channel. Packets that are being received on it are lost.
+	 * @param channel channel to remove
+	 */
+	public void removeChannel(int channel) {
+		if (channels.remove(channel))
+			stopListening(channel);
+	}
+
+	/**
+	 * @return Channels this gateway listens on
+	 */
+	public Set<Integer> getChannels() {
+		return Collections.unmodifiableSet(channels);
+	}
+
+	// The demodulators keep listening on their channels when the transmit channel changes
+	@Override
+	protected void retune(int oldChannel, int newChannel) {
+	}
+
+	@Override
+	protected boolean canDemodulate(LoRaModulation modulation) {
+		return true;
+	}
+
+	@Override
+	protected int getDemodulatorPaths() {
+		return demodulatorPaths;
+	}
+}
@@ -0,0 +1,22 @@
+package com.lorasim.physical;
+
+import java.util.SplittableRandom;
+
+/**
+ * One-way radio link from a transceiver to one of its neighbors
+ */
+class Link {
+	final PhysicalTransceiver target;
+	int lossPct; // Chance of a packet being lost entirely, in percent
+	double bitErrorRate; // Chance of each bit of a received packet being flipped
+	double rssiDbm; // Strength of the signal at the target
+	final SplittableRandom random; // Decides which packets are lost. Only used by the sender.
+
+	Link(PhysicalTransceiver target, int lossPct, double bitErrorRate, double rssiDbm, SplittableRandom random) {
+		this.target = target;
+		this.lossPct = lossPct;
+		this.bitErrorRate = bitErrorRate;
+		this.rssiDbm = rssiDbm;
+		this.random = random;
+	}
+}
@@ -0,0 +1,158 @@
+package com.lorasim.physical;
+
+/**
+ * LoRa modulation settings, and the time on air they give a packet.
+ * Airtime follows the formula in the Semtech SX127x datasheet. It is computed once for every
+ * possible payload length when the modulation is created, so looking it up costs one array read.
+ * Instances are immutable and can be shared by any number of transceivers and packets.
+ */
+public class LoRaModulation {
+	public static final int MAX_PAYLOAD_LENGTH = 255; // Largest payload the radio FIFO can hold
+
+	// SF7, 125kHz, 4/5 coding rate, 8 symbol preamble, explicit header, CRC on
+	public static final LoRaModulation DEFAULT = new LoRaModulation(7, 125000, 1, 8, true, true);
+
+	// Signal to interference ratio (dB) a packet needs to survive an overlapping one, by the spreading
+	// factor of the wanted packet (rows, SF7 to SF12) and the interfering packet (columns).
+	// From Goursaud and Gorce, "Dedicated networks for IoT: PHY/MAC state of the art and challenges" (2015)
+	private static final int[][] CAPTURE_THRESHOLD_DB = {
+			{  6,  -8,  -9,  -9,  -9,  -9},
+			{-11,   6, -11, -12, -13, -13},
+			{-15, -13,   6, -13, -14, -15},
+			{-19, -18, -17,   6, -17, -18},
+			{-22, -22, -21, -20,   6, -20},
+			{-25, -25, -25, -24, -23,   6}
+	};
+
+	// Receiver sensitivity (dBm) at 125kHz bandwidth, by spreading factor (SF6 to SF12), from the SX1276 datasheet
+	private static final double[] SENSITIVITY_125KHZ_DBM = {-118, -123, -126, -129, -132, -134.5, -137};
+	private static final double NOISE_FIGURE_DB = 6;
+
+	private int spreadingFactor; // 6 to 12
+	private int bandwidthHz;
+	private int codingRate; // 1 to 4, for coding rates 4/5 to 4/8
+	private int preambleLength; // Programmed preamble length in symbols
+	private boolean explicitHeader;
+	private boolean crcOn;
+	private boolean lowDataRateOptimize;
+	private int[] airtimeMillis; // Time on air, indexed by payload length
+
+	/**
+	 * Create a modulation, enabling low data rate optimization when the symbol time exceeds 16ms
+	 * (as Semtech recommends)
+	 * @see #LoRaModulation(int, int, int, int, boolean, boolean, boolean)
+	 */
+	public LoRaModulation(int spreadingFactor, int bandwidthHz, int codingRate, int preambleLength,
+						  boolean explicitHeader, boolean crcOn) {
+		this(spreadingFactor, bandwidthHz, codingRate, preambleLength, explicitHeader, crcOn,
+				(1 << spreadingFactor) * 1000.0 / bandwidthHz > 16);
+	}
+
+	/**
+	 * @param spreadingFactor Spreading factor, 6 to 12
+	 * @param bandwidthHz Signal bandwidth in Hz (125000, 250000 or 500000 for LoRaWAN)
+	 * @param codingRate Coding rate, 1 to 4 for 4/5 to 4/8
+	 * @param preambleLength Number of programmed preamble symbols (8 for LoRaWAN)
+	 * @param explicitHeader true to send the PHY header, false for implicit header mode
+	 * @param crcOn true if the PHY appends a payload CRC
+	 * @param lowDataRateOptimize true to enable low data rate optimization
+	 */
+	public LoRaModulation(int spreadingFactor, int bandwidthHz, int codingRate, int preambleLength,
+						  boolean explicitHeader, boolean crcOn, boolean lowDataRateOptimize) {
+		if (spreadingFactor < 6 || spreadingFactor > 12)
+			throw new IllegalArgumentException("Invalid spreading factor: " + spreadingFactor);
+		if (bandwidthHz <= 0)
+			throw new IllegalArgumentException("Invalid bandwidth: " + bandwidthHz);
+		if (codingRate < 1 || codingRate > 4)
+			throw new IllegalArgumentException("Invalid coding rate: " + codingRate);
+		if (preambleLength < 0)
+			throw new IllegalArgumentException("Invalid preamble length: " + preambleLength);
+		this.spreadingFactor = spreadingFactor;
+		this.bandwidthHz = bandwidthHz;
+		this.codingRate = codingRate;
+		this.preambleLength = preambleLength;
+		this.explicitHeader = explicitHeader;
+		this.crcOn = crcOn;
+		this.lowDataRateOptimize = lowDataRateOptimize;
+		this.airtimeMillis = new int[MAX_PAYLOAD_LENGTH + 1];
+		for (int x = 0; x < airtimeMillis.length; x++)
+			airtimeMillis[x] = computeAirtimeMillis(x);
+	}
+
+	/**
+	 * @param length Payload length in bytes
+	 * @return Time on air of a packet with this payload length, in milliseconds (rounded up)
+	 */
+	public int getAirtimeMillis(int length) {
+		if (length <= MAX_PAYLOAD_LENGTH)
+			return airtimeMillis[length];
+		return computeAirtimeMillis(length); // Too long for a real radio, but still simulated
+	}
+
+	// Semtech SX127x datasheet, section 4.1.1.7
+	private int computeAirtimeMillis(int length) {
+		double symbolMs = (1 << spreadingFactor) * 1000.0 / bandwidthHz;
+		double preambleMs = (preambleLength + 4.25) * symbolMs;
+		int numerator = 8 * length - 4 * spreadingFactor + 28 + (crcOn ? 16 : 0) - (explicitHeader ? 0 : 20);
+		int denominator = 4 * (spreadingFactor - (lowDataRateOptimize ? 2 : 0));
+		int payloadSymbols = 8 + Math.max((int) Math.ceil((double) numerator / denominator) * (codingRate + 4), 0);
+		return (int) Math.ceil(preambleMs + payloadSymbols * symbolMs);
+	}
+
+	/**
+	 * @param interferer modulation of an overlapping packet
+	 * @return How much stronger (in dB) a packet with this modulation must be than the interferer
+	 * for it to still be received. Negative if the spreading factors are different.
+	 */
+	public int getCaptureThresholdDb(LoRaModulation interferer) {
+		int wanted = Math.max(spreadingFactor, 7) - 7; // SF6 is treated like SF7
+		int other = Math.max(interferer.spreadingFactor, 7) - 7;
+		return CAPTURE_THRESHOLD_DB[wanted][other];
+	}
+
+	/**
+	 * @return Weakest signal (in dBm) a receiver can decode with this modulation
+	 */
+	public double getSensitivityDbm() {
+		return SENSITIVITY_125KHZ_DBM[spreadingFactor - 6] + 10 * Math.log10(bandwidthHz / 125000.0);
+	}
+
+	/**
+	 * @return Thermal noise (in dBm) in this modulation's bandwidth, including the receiver's noise figure
+	 */
+	public double getNoiseFloorDbm() {
+		return -174 + 10 * Math.log10(bandwidthHz) + NOISE_FIGURE_DB;
+	}
+
+	public int getSpreadingFactor() {
+		return spreadingFactor;
+	}
+
+	public int getBandwidthHz() {
+		return bandwidthHz;
+	}
+
+	public int getCodingRate() {
+		return codingRate;
+	}
+
+	public int getPreambleLength() {
+		return preambleLength;
+	}
+
+	public boolean isExplicitHeader() {
+		return explicitHeader;
+	}
+
+	public boolean isCrcOn() {
+		return crcOn;
+	}
+
+	public boolean isLowDataRateOptimize() {
+		return lowDataRateOptimize;
+	}
+
+	public String toString() {
+		return String.format("SF%d/%dkHz/4-%d", spreadingFactor, bandwidthHz / 1000, codingRate + 4);
+	}
+}
@@ -0,0 +1,110 @@
+package com.lorasim.physical;
+
+import com.lorasim.misc.Utils;
+import com.lorasim.sim.SimClock;
+import com.lorasim.sim.WallClock;
+import com.lorasim.test.PrettyPrint;
+
+import java.util.SplittableRandom;
+
+/**
+ * The shared radio medium. Each transmission is stored once, as a single PhysicalPacket,
+ * and every receiver in range is handed a lightweight Reception that records what happened
+ * to the packet on that link.
+ * All randomness in a simulation comes from the medium's seed, so a run can be replayed exactly.
+ */
+public class Medium {
+	// Random streams, so that each use of randomness by a node or link gets its own
+	public static final int STREAM_PHY = 0; // Bit errors at a receiver
+	public static final int STREAM_LINK = 1; // Packet loss on a link
+	public static final int STREAM_PROTOCOL = 2; // Protocol backoff
+	public static final int STREAM_MOBILITY = 3; // Movement of a node
+
+	private static Medium defaultMedium;
+
+	private SimClock clock;
+	private long seed;
+	private long transmissionCount = 0;
+	private long receptionCount = 0;
+
+	/**
+	 * Create a medium with a random seed. Use getSeed() to find out what it was.
+	 */
+	public Medium(SimClock clock) {
+		this(clock, Utils.mix64(System.nanoTime()));
+	}
+
+	/**
+	 * @param seed seed every random stream in the simulation is derived from
+	 */
+	public Medium(SimClock clock, long seed) {
+		this.clock = clock;
+		this.seed = seed;
+	}
+
+	/**
+	 * @return The medium used by transceivers that were created without one, running on the wall clock
+	 */
+	public static synchronized Medium getDefault() {
+		if (defaultMedium == null)
+			defaultMedium = new Medium(WallClock.INSTANCE);
+		return defaultMedium;
+	}
+
+	public SimClock getClock() {
+		return clock;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Create an independent random stream. The same seed, stream, address and peer always give
+	 * the same numbers, whatever order nodes and links are created in. Streams are not thread-safe,
+	 * so each one should only be used by one thread.
+	 * @param stream what the stream is used for, one of the STREAM_ constants
+	 * @param address address of the node the stream belongs to
+	 * @param peer address of the other end of a link, or 0 for streams that belong to a single node
+	 */
+	public SplittableRandom newRandom(int stream, int address, int peer) {
+		long key = Utils.mix64(((long) stream << 48) ^ ((long) address << 24) ^ (peer & 0xFFFFFFL));
+		return new SplittableRandom(Utils.mix64(seed ^ key));
+	}
+
+	/**
+	 * Put a packet on the air from a transceiver to all of its neighbors
+	 * @param sender transceiver that is transmitting
+	 * @param p packet being transmitted
+	 */
+	void transmit(PhysicalTransceiver sender, PhysicalPacket p) {
+		synchronized (this) {
+			transmissionCount++;
+			receptionCount += sender.getNeighbors().size();
+		}
+		for (Link link : sender.getNeighbors()) {
+			Reception r = new Reception(p, link.bitErrorRate, link.rssiDbm);
+			int randPct = link.random.nextInt(100);
+			if (link.lossPct > randPct) {
+				r.markDropped();
+				PrettyPrint.println("****Packet from " + sender.getAddress() + " to " + link.target.getAddress() + " was randomly dropped", PrettyPrint.COLOR_PURPLE);
+			}
+			link.target.phyReceive(r);
+		}
+		sender.phyTransmit(new Reception(p)); // Our own transmission occupies the airspace, but we never receive it
+	}
+
+	/**
+	 * @return Number of packets transmitted on this medium
+	 */
+	public synchronized long getTransmissionCount() {
+		return transmissionCount;
+	}
+
+	/**
+	 * @return Number of receptions (one per transmission per neighbor) created on this medium
+	 */
+	public synchronized long getReceptionCount() {
+		return receptionCount;
+	}
+}
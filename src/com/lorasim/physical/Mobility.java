@@ -0,0 +1,87 @@
+package com.lorasim.physical;
+
+import com.lorasim.sim.SimClock;
+
+import java.util.ArrayList;
+
+/**
+ * Moves transceivers at a fixed interval, and updates the links of those that moved.
+ * Links are changed from the clock's event thread, so mobility should be used with a Scheduler,
+ * where nothing else runs at the same time.
+ */
+public class Mobility {
+	private Topology topology;
+	private SimClock clock;
+	private long intervalMs;
+	private ArrayList<PhysicalTransceiver> transceivers;
+	private ArrayList<MobilityModel> models; // Model of each transceiver, by index
+	private boolean running = false;
+	private long moveCount = 0;
+
+	/**
+	 * @param topology topology the transceivers are part of, which must already be connected
+	 * @param clock clock to schedule moves on
+	 * @param intervalMs time between moves
+	 */
+	public Mobility(Topology topology, SimClock clock, long intervalMs) {
+		if (intervalMs <= 0)
+			throw new IllegalArgumentException("Invalid interval: " + intervalMs);
+		this.topology = topology;
+		this.clock = clock;
+		this.intervalMs = intervalMs;
+		this.transceivers = new ArrayList<>();
+		this.models = new ArrayList<>();
+	}
+
+	/**
+	 * Make a transceiver move. It must already be part of the topology.
+	 * @param t transceiver to move
+	 * @param model how it moves
+	 */
+	public void add(PhysicalTransceiver t, MobilityModel model) {
+		transceivers.add(t);
+		models.add(model);
+	}
+
+	/**
+	 * Start moving transceivers every interval
+	 */
+	public void start() {
+		if (running)
+			return;
+		running = true;
+		clock.schedule(0, this::tick);
+	}
+
+	public void stop() {
+		running = false;
+	}
+
+	private void tick() {
+		if (!running)
+			return;
+		step();
+		clock.schedule(intervalMs, this::tick);
+	}
+
+	/**
+	 * Move every transceiver to where it is now, and update the links of the ones that moved
+	 */
+	public void step() {
+		long millis = clock.currentTimeMillis();
+		for (int x = 0; x < transceivers.size(); x++) {
+			PhysicalTransceiver t = transceivers.get(x);
+			if (models.get(x).move(t, millis)) {
+				topology.update(t);
+				moveCount++;
+			}
+		}
+	}
+
+	/**
+	 * @return Number of times a transceiver moved and had its links updated
+	 */
+	public long getMoveCount() {
+		return moveCount;
+	}
+}
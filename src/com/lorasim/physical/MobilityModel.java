@@ -0,0 +1,14 @@
+package com.lorasim.physical;
+
+/**
+ * Decides where a moving transceiver is over time
+ */
+public interface MobilityModel {
+	/**
+	 * Move a transceiver to where it is at the given time. Times are passed in increasing order.
+	 * @param t transceiver to move
+	 * @param millis current time
+	 * @return true if the transceiver's position changed
+	 */
+	boolean move(PhysicalTransceiver t, long millis);
+}
@@ -0,0 +1,47 @@
+package com.lorasim.physical;
+
+/**
+ * Okumura-Hata path loss model for a small or medium sized city, with corrections for suburban
+ * and open areas. It is valid from 150 to 1500MHz, for base station heights of 30 to 200m,
+ * mobile heights of 1 to 10m and distances of 1 to 20km.
+ */
+public class OkumuraHataPropagation implements PropagationModel {
+	public enum Environment {URBAN, SUBURBAN, RURAL}
+
+	private double constantDb; // Path loss at 1km
+	private double slopeDb; // Path loss per decade of distance
+
+	/**
+	 * @param frequencyMhz carrier frequency in MHz
+	 * @param baseHeightM height of the base station (gateway) antenna, in meters
+	 * @param mobileHeightM height of the mobile (end node) antenna, in meters
+	 * @param environment type of area
+	 */
+	public OkumuraHataPropagation(double frequencyMhz, double baseHeightM, double mobileHeightM, Environment environment) {
+		double logF = Math.log10(frequencyMhz);
+		double mobileCorrection = (1.1 * logF - 0.7) * mobileHeightM - (1.56 * logF - 0.8);
+		double urban = 69.55 + 26.16 * logF - 13.82 * Math.log10(baseHeightM) - mobileCorrection;
+		switch (environment) {
+			case SUBURBAN:
+				urban -= 2 * Math.pow(Math.log10(frequencyMhz / 28), 2) + 5.4;
+				break;
+			case RURAL:
+				urban -= 4.78 * logF * logF - 18.33 * logF + 40.94;
+				break;
+			default:
+				break;
+		}
+		this.constantDb = urban;
+		this.slopeDb = 44.9 - 6.55 * Math.log10(baseHeightM);
+	}
+
+	@Override
+	public double getPathLossDb(double distanceM) {
+		return constantDb + slopeDb * Math.log10(Math.max(distanceM, 1) / 1000);
+	}
+
+	@Override
+	public double getDistanceM(double pathLossDb) {
+		return 1000 * Math.pow(10, (pathLossDb - constantDb) / slopeDb);
+	}
+}
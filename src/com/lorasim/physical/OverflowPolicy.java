@@ -0,0 +1,10 @@
+package com.lorasim.physical;
+
+/**
+ * What a transceiver does with a newly received packet when its receive buffer is full
+ */
+public enum OverflowPolicy {
+	DROP_OLDEST, // Discard the oldest buffered packet to make room (like an overwritten radio FIFO)
+	DROP_NEWEST, // Discard the new packet
+	BLOCK // Hold off the receiver until the upper layer makes room
+}
@@ -1,24 +1,55 @@
 package com.lorasim.physical;
 
-import java.util.Date;
-import java.util.Hashtable;
+import com.lorasim.misc.AtomicBitSet;
+
+import java.nio.ByteBuffer;
 
 public class PhysicalPacket {
 	private int sender; // Address of node that sent packet
-	private Hashtable<Integer, Integer> receivedBy;
-	private boolean collided = false;
+	private AtomicBitSet receivedBy; // Addresses of the transceivers that received this packet
 	private int channel; // Frequency transmitted on
-	private byte[] data; // Raw packet data
+	private ByteBuffer data; // Raw packet data (read-only, shared by every receiver)
 	private long millis; // Time packet was sent
 	private int duration; // Number of milliseconds packet takes to send
+	private LoRaModulation modulation;
+	private Object tag; // Simulator-side data carried along with the packet, but never transmitted
+
+	/**
+	 * @param data Raw packet data, from its position to its limit. It is not copied,
+	 *             so it must not be modified afterwards.
+	 */
+	public PhysicalPacket(int sender, int channel, ByteBuffer data, long millis) {
+		this(sender, channel, data, millis, LoRaModulation.DEFAULT);
+	}
 
-	public PhysicalPacket(int sender, int channel, byte[] data) {
+	/**
+	 * @param data Raw packet data, from its position to its limit. It is not copied,
+	 *             so it must not be modified afterwards.
+	 * @param modulation Modulation the packet is sent with, which sets its time on air
+	 */
+	public PhysicalPacket(int sender, int channel, ByteBuffer data, long millis, LoRaModulation modulation) {
 		this.sender = sender;
-		this.receivedBy = new Hashtable<>();
+		this.receivedBy = new AtomicBitSet();
 		this.channel = channel;
-		this.data = data;
-		this.millis = new Date().getTime();
-		this.duration = 100 + 20*data.length;
+		this.data = data.slice().asReadOnlyBuffer();
+		this.millis = millis;
+		this.modulation = modulation;
+		this.duration = modulation.getAirtimeMillis(this.data.remaining());
+	}
+
+	/**
+	 * Copy of a packet with different data, such as the same packet after bit errors.
+	 * Reception tracking is shared with the original.
+	 */
+	PhysicalPacket(PhysicalPacket original, ByteBuffer data) {
+		this.sender = original.sender;
+		this.receivedBy = original.receivedBy;
+		this.channel = original.channel;
+		this.data = data.slice().asReadOnlyBuffer();
+		this.millis = original.millis;
+		this.duration = original.duration;
+		this.modulation = original.modulation;
+		this.tag = original.tag;
 	}
 
 	public boolean collidesWith(PhysicalPacket p2) {
@@ -32,15 +63,17 @@ public class PhysicalPacket {
 	}
 
 	public boolean wasReceivedBy(int nodeId) {
-		return receivedBy.containsKey(nodeId);
+		return receivedBy.get(nodeId);
 	}
 
 	public boolean canBeReceivedBy(int nodeId) {
-		if(collided)
-			return false;
 		return !wasReceivedBy(nodeId);
 	}
 
+	public int getSender() {
+		return sender;
+	}
+
 	public long getMillis() {
 		return millis;
 	}
@@ -57,25 +90,49 @@ public class PhysicalPacket {
 		return duration;
 	}
 
-	public void markReceivedBy(int nodeId) {
-		receivedBy.put(nodeId, 0);
+	public LoRaModulation getModulation(){
+		return modulation;
 	}
-	public void markInterfered() {
-		collided = true;
+
+	/**
+	 * @return Simulator-side data the sender attached to this packet, or null if none
+	 */
+	public Object getTag(){
+		return tag;
+	}
+
+	/**
+	 * Attach simulator-side data to this packet, such as a handle for tracking it end to end.
+	 * Every receiver sees the same tag. It doesn't count towards the packet's length or airtime.
+	 */
+	public void setTag(Object tag){
+		this.tag = tag;
+	}
+
+	public void markReceivedBy(int nodeId) {
+		receivedBy.set(nodeId);
 	}
 
+	/**
+	 * @return A copy of the raw packet data, which the caller is free to modify
+	 */
 	public byte[] getData(){
-		byte[] rtn = new byte[data.length];
-		for(int x = 0;  x < data.length; x++){
-			rtn[x] = data[x];
-		}
+		byte[] rtn = new byte[data.remaining()];
+		data.duplicate().get(rtn);
 		return rtn;
 	}
 
+	/**
+	 * @return A read-only view of the raw packet data, without copying it
+	 */
+	public ByteBuffer getBuffer(){
+		return data.duplicate();
+	}
+
 	public String getDataStr() {
 		StringBuilder sb = new StringBuilder();
-		for(int x = 0; x < data.length; x++)
-			sb.append((char)data[x]);
+		for(int x = 0; x < data.remaining(); x++)
+			sb.append((char)data.get(x));
 		return sb.toString();
 	}
 
@@ -1,34 +1,79 @@
 package com.lorasim.physical;
 
-import com.lorasim.misc.Pair;
 import com.lorasim.misc.Stoppable;
-import com.lorasim.misc.Utils;
-import com.lorasim.test.PrettyPrint;
+import com.lorasim.sim.Signal;
+import com.lorasim.sim.SimClock;
 
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
+import java.util.HashMap;
+import java.util.SplittableRandom;
 
 
 public class PhysicalTransceiver implements Runnable, Stoppable {
-	private ArrayList<Pair<PhysicalTransceiver, Integer>> neighbors;
+	public static final double DEFAULT_RSSI_DBM = -80; // Signal strength of links added without one
+	public static final double DEFAULT_TX_POWER_DBM = 14;
+	private ArrayList<Link> neighbors;
+	private HashMap<PhysicalTransceiver, Link> neighborIndex; // Same links as neighbors, by target
 	private ReceiveManager receiveManager;
-	private ArrayList<PhysicalPacket> receivedPackets; // Successfully received without collisions or errors
-	private Semaphore receivedPacketWafer;
+	private ReceiveRing receivedPackets; // Successfully received without collisions or errors
 
 	private int address; // Address of this transceiver
 	private int channel = 433; // Frequency this transceiver is set to transmit/receive on (default 433MHz)
-	private long lastChannelChangeMs = 0; // Time when the channel was last changed
+	private LoRaModulation modulation = LoRaModulation.DEFAULT;
+	private double x = 0, y = 0; // Position in meters
+	private double txPowerDbm = DEFAULT_TX_POWER_DBM;
 	private long radioFreeMs = 0;
 	private boolean stopped = false;
 	private PrintStream debugStream;
+	private Medium medium;
+	private SimClock clock;
+	private Signal airspaceSignal; // Raised when a packet is added to the airspace
+	private RadioListener radioListener;
+	private SplittableRandom random; // Used by the PHY loop
 
 	public PhysicalTransceiver(int address) {
+		this(address, Medium.getDefault());
+	}
+
+	public PhysicalTransceiver(int address, Medium medium) {
 		neighbors = new ArrayList<>();
+		neighborIndex = new HashMap<>();
 		this.address = address;
-		this.receiveManager = new ReceiveManager();
-		this.receivedPackets = new ArrayList<>();
-		this.receivedPacketWafer = new Semaphore(1);
+		this.medium = medium;
+		this.clock = medium.getClock();
+		this.receiveManager = new ReceiveManager(clock);
+		this.receivedPackets = new ReceiveRing(1, OverflowPolicy.DROP_OLDEST, clock);
+		this.airspaceSignal = clock.newSignal();
+		this.random = medium.newRandom(Medium.STREAM_PHY, address, 0);
+		this.receiveManager.listen(channel, Long.MIN_VALUE);
+	}
+
+	/**
+	 * Set the listener to notify when the state of the radio changes
+	 * @param listener listener to notify, or null for none
+	 */
+	public void setRadioListener(RadioListener listener) {
+		this.radioListener = listener;
+	}
+
+	/**
+	 * Set the size of the PHY receive buffer and what happens when it overflows.
+	 * The default is a single packet, overwritten by the next one (like the SX127x FIFO).
+	 * Buffered packets are discarded. Call this before the transceiver is started.
+	 * @param depth Number of packets the buffer can hold
+	 * @param policy What to do with a received packet when the buffer is full
+	 */
+	public void setReceiveBuffer(int depth, OverflowPolicy policy) {
+		this.receivedPackets = new ReceiveRing(depth, policy, clock);
+	}
+
+	/**
+	 * @return Number of received packets that were dropped because the receive buffer was full
+	 */
+	public long getDroppedPackets() {
+		return receivedPackets.getDropped();
 	}
 
 	public void setDebugStream(PrintStream p) {
@@ -36,10 +81,106 @@ public class PhysicalTransceiver implements Runnable, Stoppable {
 	}
 
 	public void addNeighbor(PhysicalTransceiver t, int loss) {
-		for (Pair<PhysicalTransceiver, Integer> neighbor : neighbors)
-			if (neighbor.getKey().equals(t))
-				return;
-		neighbors.add(new Pair<>(t, loss));
+		addNeighbor(t, loss, 0);
+	}
+
+	/**
+	 * Add a one-way link to another transceiver
+	 * @param t transceiver that can hear this one
+	 * @param loss chance of a packet being lost entirely, in percent
+	 * @param bitErrorRate chance of each bit of a packet that does arrive being flipped
+	 */
+	public void addNeighbor(PhysicalTransceiver t, int loss, double bitErrorRate) {
+		addNeighbor(t, loss, bitErrorRate, DEFAULT_RSSI_DBM);
+	}
+
+	/**
+	 * Add a one-way link to another transceiver
+	 * @param t transceiver that can hear this one
+	 * @param loss chance of a packet being lost entirely, in percent
+	 * @param bitErrorRate chance of each bit of a packet that does arrive being flipped
+	 * @param rssiDbm strength of this transceiver's signal at t, which decides which of two overlapping packets survives
+	 */
+	public void addNeighbor(PhysicalTransceiver t, int loss, double bitErrorRate, double rssiDbm) {
+		if (neighborIndex.containsKey(t))
+			return;
+		Link link = new Link(t, loss, bitErrorRate, rssiDbm, medium.newRandom(Medium.STREAM_LINK, address, t.getAddress()));
+		neighbors.add(link);
+		neighborIndex.put(t, link);
+	}
+
+	/**
+	 * Remove the link to another transceiver, so it can no longer hear this one
+	 * @param t transceiver to remove
+	 */
+	public void removeNeighbor(PhysicalTransceiver t) {
+		Link link = neighborIndex.remove(t);
+		if (link != null)
+			neighbors.remove(link);
+	}
+
+	/**
+	 * Change an existing link in place
+	 * @param t transceiver that can hear this one
+	 * @param loss chance of a packet being lost entirely, in percent
+	 * @param rssiDbm strength of this transceiver's signal at t
+	 */
+	public void updateNeighbor(PhysicalTransceiver t, int loss, double rssiDbm) {
+		Link link = neighborIndex.get(t);
+		if (link == null)
+			throw new IllegalArgumentException("Transceiver " + t.getAddress() + " is not a neighbor of " + address);
+		link.lossPct = loss;
+		link.rssiDbm = rssiDbm;
+	}
+
+	/**
+	 * @return The link from this transceiver to t, or null if t can't hear this transceiver
+	 */
+	Link getLink(PhysicalTransceiver t) {
+		return neighborIndex.get(t);
+	}
+
+	/**
+	 * @param t a neighbor
+	 * @return Strength of this transceiver's signal at t in dBm, or NaN if t can't hear this transceiver
+	 */
+	public double getLinkRssiDbm(PhysicalTransceiver t) {
+		Link link = neighborIndex.get(t);
+		return link == null ? Double.NaN : link.rssiDbm;
+	}
+
+	/**
+	 * @param t a neighbor
+	 * @return Signal to noise ratio of this transceiver's signal at t in dB, or NaN if t can't hear this transceiver
+	 */
+	public double getLinkSnrDb(PhysicalTransceiver t) {
+		return getLinkRssiDbm(t) - t.getModulation().getNoiseFloorDbm();
+	}
+
+	public double getX() {
+		return x;
+	}
+
+	public double getY() {
+		return y;
+	}
+
+	/**
+	 * Place this transceiver on the map. Links are not updated; use a Topology for that.
+	 * @param x position in meters
+	 * @param y position in meters
+	 */
+	public void setPosition(double x, double y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public double getTxPowerDbm() {
+		return txPowerDbm;
+	}
+
+	public void setTxPowerDbm(double txPowerDbm) {
+		this.txPowerDbm = txPowerDbm;
 	}
 
 //	public boolean hasNeighbor(PhysicalTransceiver t) {
@@ -50,8 +191,16 @@ public class PhysicalTransceiver implements Runnable, Stoppable {
 		return address;
 	}
 
-	long getLastChannelChangeMs() {
-		return lastChannelChangeMs;
+	ArrayList<Link> getNeighbors() {
+		return neighbors;
+	}
+
+	public Medium getMedium() {
+		return medium;
+	}
+
+	public SimClock getClock() {
+		return clock;
 	}
 
 	public void send(byte[] message) {
@@ -59,25 +208,68 @@ public class PhysicalTransceiver implements Runnable, Stoppable {
 	}
 
 	public void send(byte[] message, boolean blocking) {
-		PhysicalPacket p = null;
-		for (Pair<PhysicalTransceiver, Integer> neighbor : neighbors) {
-			p = new PhysicalPacket(address, channel, message);
-			int randPct = (int) (Math.random() * 100);
-			if (neighbor.getValue() > randPct) {
-				p.markInterfered();
-				PrettyPrint.println("****Packet from " + this.address + " to " + neighbor.getKey().getAddress() + " was randomly dropped", PrettyPrint.COLOR_PURPLE);
-			}
-			neighbor.getKey().phyReceive(p);
-		}
-		p = new PhysicalPacket(address, channel, message);
-		radioFreeMs = System.currentTimeMillis() + p.getDuration();
+		send(ByteBuffer.wrap(message), blocking);
+	}
+
+	/**
+	 * Transmit a packet without copying it
+	 * @param message packet data, from its position to its limit. It must not be modified afterwards.
+	 * @param blocking true to wait until the transmission has finished
+	 */
+	public void send(ByteBuffer message, boolean blocking) {
+		send(message, modulation, blocking);
+	}
+
+	/**
+	 * Transmit a packet with a different modulation than the one this transceiver is set to
+	 * @param message packet data, from its position to its limit. It must not be modified afterwards.
+	 * @param modulation modulation to send the packet with
+	 * @param blocking true to wait until the transmission has finished
+	 */
+	public void send(ByteBuffer message, LoRaModulation modulation, boolean blocking) {
+		send(message, modulation, null, blocking);
+	}
+
+	/**
+	 * Transmit a packet with simulator-side data attached, which receivers can read with PhysicalPacket.getTag()
+	 * @param message packet data, from its position to its limit. It must not be modified afterwards.
+	 * @param tag data to attach, which is not transmitted
+	 * @param blocking true to wait until the transmission has finished
+	 */
+	public void send(ByteBuffer message, Object tag, boolean blocking) {
+		send(message, modulation, tag, blocking);
+	}
+
+	/**
+	 * Transmit a copy of a packet, like writing it into the radio's FIFO, so the caller may reuse its buffer
+	 * for the next packet as soon as this returns
+	 * @param message packet data, from its position to its limit. Its position is not changed.
+	 * @param tag data to attach, which is not transmitted
+	 * @param blocking true to wait until the transmission has finished
+	 */
+	public void sendCopy(ByteBuffer message, Object tag, boolean blocking) {
+		byte[] fifo = new byte[message.remaining()]; // The frame stays on the air until every receiver is done with it
+		message.duplicate().get(fifo);
+		send(ByteBuffer.wrap(fifo), modulation, tag, blocking);
+	}
+
+	private void send(ByteBuffer message, LoRaModulation modulation, Object tag, boolean blocking) {
+		long millis = clock.currentTimeMillis();
+		PhysicalPacket p = new PhysicalPacket(address, channel, message, millis, modulation);
+		p.setTag(tag);
+		radioFreeMs = millis + p.getDuration();
+		medium.transmit(this, p);
+		clock.schedule(p.getDuration(), () -> {
+			RadioListener l = radioListener;
+			if (l != null)
+				l.onTxDone(this);
+		});
 		if (blocking)
-			Utils.sleep(p.getDuration() + 1);
-		receiveManager.addPacket(p);
+			clock.sleep(p.getDuration() + 1);
 	}
 
 	public boolean canSend() {
-		return System.currentTimeMillis() > radioFreeMs;
+		return clock.currentTimeMillis() > radioFreeMs;
 	}
 
 
@@ -90,68 +282,130 @@ public class PhysicalTransceiver implements Runnable, Stoppable {
 	 * @return a PhysicalPacket if one exists, otherwise null
 	 */
 	public PhysicalPacket receive() {
-		try {
-			receivedPacketWafer.acquire();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		try {
-			if (receivedPackets.size() == 0)
-				return null;
-			return receivedPackets.remove(0);
-		} finally {
-			receivedPacketWafer.release();
+		return receivedPackets.poll();
+	}
+
+	void phyReceive(Reception r) {
+		boolean locked = receiveManager.addReception(this, r);
+		airspaceSignal.raise();
+		RadioListener l = radioListener;
+		if (l != null && r.packet.getChannel() == channel) {
+			l.onChannelActivityDetected(this);
+			if (locked)
+				l.onRxStart(this);
 		}
 	}
 
-	private void phyReceive(PhysicalPacket p) {
-		receiveManager.addPacket(p);
+	void phyTransmit(Reception r) {
+		receiveManager.addReception(this, r);
+		airspaceSignal.raise();
 	}
 
 	public int getChannel() {
 		return channel;
 	}
 
+	public LoRaModulation getModulation() {
+		return modulation;
+	}
+
+	/**
+	 * Set the modulation this transceiver sends with
+	 * @param modulation new modulation
+	 */
+	public void setModulation(LoRaModulation modulation) {
+		this.modulation = modulation;
+	}
+
+	/**
+	 * Change the channel this transceiver transmits and receives on. This takes constant time:
+	 * the airspace of every channel is kept, and already received packets stay in the receive buffer.
+	 * @param channel new channel
+	 */
 	public void setChannel(int channel) {
 		if (this.channel == channel)
 			return;
+		int oldChannel = this.channel;
 		this.channel = channel;
-		try {
-			receivedPacketWafer.acquire();
-			this.receiveManager.clear();
-			this.receivedPackets.clear();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		} finally {
-			receivedPacketWafer.release();
-		}
+		retune(oldChannel, channel);
+	}
+
+	/**
+	 * Called when the channel changes, to move the receiver to the new channel.
+	 * Packets being received on the old channel are lost.
+	 */
+	protected void retune(int oldChannel, int newChannel) {
+		receiveManager.stopListening(oldChannel);
+		receiveManager.listen(newChannel, clock.currentTimeMillis());
+		airspaceSignal.raise(); // The PHY loop must now wait on the new channel's packets
+	}
 
-		this.lastChannelChangeMs = System.currentTimeMillis();
+	/**
+	 * Start receiving on a channel, in addition to any others
+	 */
+	void listen(int channel) {
+		receiveManager.listen(channel, clock.currentTimeMillis());
+		airspaceSignal.raise();
+	}
+
+	/**
+	 * Stop receiving on a channel
+	 */
+	void stopListening(int channel) {
+		receiveManager.stopListening(channel);
+		airspaceSignal.raise();
+	}
+
+	/**
+	 * @param modulation modulation of a packet
+	 * @return true if this transceiver can receive packets sent with the modulation.
+	 * A single radio only decodes its own spreading factor and bandwidth.
+	 */
+	protected boolean canDemodulate(LoRaModulation modulation) {
+		return modulation.getSpreadingFactor() == this.modulation.getSpreadingFactor()
+				&& modulation.getBandwidthHz() == this.modulation.getBandwidthHz();
+	}
+
+	/**
+	 * @return Number of packets this transceiver can receive at the same time
+	 */
+	protected int getDemodulatorPaths() {
+		return 1;
 	}
 
 	public void stop() {
 		stopped = true;
+		airspaceSignal.raise();
 	}
 
 	@Override
 	public void run() {
 		try {
 			while (!stopped) {
-				PhysicalPacket rxPacket = receiveManager.receive(this);
-				if (rxPacket != null) {
-					if (debugStream != null)
-						debugStream.printf("PHY: Transceiver %d received: %s\n", address, rxPacket.getDataStr());
-					receivedPacketWafer.acquire();
-					try {
-						if (receivedPackets.size() > 0 && debugStream != null)
-							debugStream.println("PHY: Receive buffer already has packet, had to drop one");
-						receivedPackets.clear();
-						receivedPackets.add(rxPacket);
-					} finally {
-						receivedPacketWafer.release();
+				Reception rxd = receiveManager.pollFinished(this);
+				if (rxd != null) {
+					PhysicalPacket rxPacket = rxd.packet;
+					RadioListener l = radioListener;
+					if (rxd.isIntact() && rxPacket.canBeReceivedBy(address)) {
+						rxPacket.markReceivedBy(address);
+						rxPacket = rxd.applyBitErrors(random);
+						if (debugStream != null)
+							debugStream.printf("PHY: Transceiver %d received: %s\n", address, rxPacket.getDataStr());
+						receivedPackets.offer(rxPacket);
+						if (l != null) {
+							if (rxPacket == rxd.packet)
+								l.onRxDone(this, rxPacket);
+							else
+								l.onCrcError(this); // Like an SX127x, the corrupted payload is still buffered
+						}
+					} else if (rxd.isInterfered() && l != null) {
+						l.onCrcError(this);
 					}
+				} else {
+					// Sleep until the next packet finishes, or a new one starts
+					long nextEventMs = receiveManager.getNextEventMillis(this);
+					airspaceSignal.await(nextEventMs < 0 ? -1 : Math.max(1, nextEventMs - clock.currentTimeMillis()));
 				}
-				Thread.sleep(Utils.SLEEP_DELAY);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -162,7 +416,7 @@ public class PhysicalTransceiver implements Runnable, Stoppable {
 	 * @return Status of this radio (0 = idle, 1 = receiving, 2 = transmitting)
 	 */
 	public int getRadioStatus() {
-		if (System.currentTimeMillis() < radioFreeMs)
+		if (clock.currentTimeMillis() < radioFreeMs)
 			return 2;
 		if (receiveManager.isReceiving(this))
 			return 1;
@@ -0,0 +1,19 @@
+package com.lorasim.physical;
+
+/**
+ * Path loss between two points a given distance apart
+ */
+public interface PropagationModel {
+	/**
+	 * @param distanceM distance between transmitter and receiver, in meters
+	 * @return Path loss in dB
+	 */
+	double getPathLossDb(double distanceM);
+
+	/**
+	 * Inverse of getPathLossDb, used to find how far a transmitter can reach
+	 * @param pathLossDb path loss in dB
+	 * @return Distance in meters at which the path loss reaches pathLossDb
+	 */
+	double getDistanceM(double pathLossDb);
+}
@@ -0,0 +1,46 @@
+package com.lorasim.physical;
+
+/**
+ * Callbacks fired by a PhysicalTransceiver when the state of its radio changes,
+ * modeled on the DIO interrupt lines of an SX127x. Each callback is fired once per event.
+ * Callbacks may run on the thread of another transceiver or of the clock,
+ * so like interrupt handlers they must return quickly and must not block.
+ */
+public interface RadioListener {
+	/**
+	 * The radio detected a packet on its channel and started receiving it
+	 * @param t transceiver that is receiving
+	 */
+	public default void onRxStart(PhysicalTransceiver t) {
+	}
+
+	/**
+	 * A packet was received intact and put in the receive buffer
+	 * @param t transceiver that received the packet
+	 * @param p packet that was received
+	 */
+	public default void onRxDone(PhysicalTransceiver t, PhysicalPacket p) {
+	}
+
+	/**
+	 * A packet the radio was receiving finished, but was destroyed by an overlapping packet or arrived with bit errors.
+	 * Like on an SX127x, a packet with bit errors is still put in the receive buffer, for the upper layer to check.
+	 * @param t transceiver that was receiving
+	 */
+	public default void onCrcError(PhysicalTransceiver t) {
+	}
+
+	/**
+	 * A transmission finished
+	 * @param t transceiver that was transmitting
+	 */
+	public default void onTxDone(PhysicalTransceiver t) {
+	}
+
+	/**
+	 * Another transceiver started transmitting on the channel this radio is listening to
+	 * @param t transceiver that detected the activity
+	 */
+	public default void onChannelActivityDetected(PhysicalTransceiver t) {
+	}
+}
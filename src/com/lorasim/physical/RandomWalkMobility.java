@@ -0,0 +1,47 @@
+package com.lorasim.physical;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random walk: each time the transceiver moves, it goes a fixed speed in a random direction.
+ * It bounces off the edges of its area.
+ */
+public class RandomWalkMobility implements MobilityModel {
+	private double minX, minY, maxX, maxY; // Area to stay in, in meters
+	private double speed; // In meters per second
+	private SplittableRandom random;
+	private long lastMillis = -1;
+
+	public RandomWalkMobility(double minX, double minY, double maxX, double maxY, double speed, SplittableRandom random) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.speed = speed;
+		this.random = random;
+	}
+
+	@Override
+	public boolean move(PhysicalTransceiver t, long millis) {
+		long elapsedMs = lastMillis < 0 ? 0 : millis - lastMillis;
+		lastMillis = millis;
+		if (elapsedMs <= 0 || speed <= 0)
+			return false;
+		double heading = random.nextDouble() * 2 * Math.PI;
+		double distanceM = speed * elapsedMs / 1000;
+		t.setPosition(reflect(t.getX() + distanceM * Math.cos(heading), minX, maxX),
+				reflect(t.getY() + distanceM * Math.sin(heading), minY, maxY));
+		return true;
+	}
+
+	// Fold a coordinate that went past an edge back inside
+	private static double reflect(double v, double min, double max) {
+		if (max <= min)
+			return min;
+		double span = max - min;
+		double offset = (v - min) % (2 * span);
+		if (offset < 0)
+			offset += 2 * span;
+		return min + (offset <= span ? offset : 2 * span - offset);
+	}
+}
@@ -0,0 +1,73 @@
+package com.lorasim.physical;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random waypoint model: the transceiver picks a random point in an area, travels to it in a
+ * straight line at a random speed, pauses there, and then picks the next point
+ */
+public class RandomWaypointMobility implements MobilityModel {
+	private double minX, minY, maxX, maxY; // Area waypoints are chosen in, in meters
+	private double minSpeed, maxSpeed; // In meters per second
+	private long pauseMs;
+	private SplittableRandom random;
+
+	private boolean started = false;
+	private double targetX, targetY, speed; // Current leg
+	private long lastMillis;
+	private long pausedUntil = 0;
+
+	public RandomWaypointMobility(double minX, double minY, double maxX, double maxY,
+								  double minSpeed, double maxSpeed, long pauseMs, SplittableRandom random) {
+		if (minSpeed <= 0 || maxSpeed < minSpeed)
+			throw new IllegalArgumentException("Invalid speed range: " + minSpeed + " to " + maxSpeed);
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.minSpeed = minSpeed;
+		this.maxSpeed = maxSpeed;
+		this.pauseMs = pauseMs;
+		this.random = random;
+	}
+
+	private void nextWaypoint() {
+		targetX = minX + random.nextDouble() * (maxX - minX);
+		targetY = minY + random.nextDouble() * (maxY - minY);
+		speed = minSpeed + random.nextDouble() * (maxSpeed - minSpeed);
+	}
+
+	@Override
+	public boolean move(PhysicalTransceiver t, long millis) {
+		if (!started) {
+			started = true;
+			lastMillis = millis;
+			nextWaypoint();
+			return false;
+		}
+		double x = t.getX(), y = t.getY();
+		long now = Math.max(lastMillis, pausedUntil);
+		while (now < millis) {
+			double dx = targetX - x, dy = targetY - y;
+			double remainingM = Math.sqrt(dx * dx + dy * dy);
+			double travelM = speed * (millis - now) / 1000;
+			if (travelM < remainingM) {
+				x += dx * travelM / remainingM;
+				y += dy * travelM / remainingM;
+				now = millis;
+			} else {
+				// Reached the waypoint: pause, then head for the next one
+				x = targetX;
+				y = targetY;
+				now += (long) Math.ceil(remainingM * 1000 / speed) + pauseMs;
+				pausedUntil = now;
+				nextWaypoint();
+			}
+		}
+		lastMillis = millis;
+		if (x == t.getX() && y == t.getY())
+			return false;
+		t.setPosition(x, y);
+		return true;
+	}
+}
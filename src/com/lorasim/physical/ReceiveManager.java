@@ -1,139 +1,173 @@
 package com.lorasim.physical;
 
+import com.lorasim.sim.SimClock;
+
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * The airspace around one transceiver, partitioned by channel. The channels the transceiver is
+ * listening on are kept in a separate list, so lookups only touch those channels, and changing
+ * channel only changes which airspaces are in the list.
+ */
 public class ReceiveManager{
-	private ArrayList<PhysicalPacket> activePackets; // Packets active in the airspace
+	private HashMap<Integer, ChannelAirspace> channels; // Packets active in the airspace, by channel
+	private ArrayList<ChannelAirspace> listening; // Airspaces of the channels the transceiver is tuned to
 	private ReentrantLock packetWafer;
-	private int expiryMs = 2000; // Packet will go into past queue this many ms after it has finished
-	private int gcSize = 15; // With more than this many packets in the queue, apply expiryMs rule
+	private SimClock clock;
+	private int expiryMs = 2000; // Finished packets that haven't been taken are dropped this many ms after they end
 
-	public ReceiveManager() {
-		activePackets = new ArrayList<>();
+	public ReceiveManager(SimClock clock) {
+		this.clock = clock;
+		channels = new HashMap<>();
+		listening = new ArrayList<>();
 		packetWafer = new ReentrantLock();
 	}
 
+	// Lock must be held
+	private ChannelAirspace getAirspace(int channel) {
+		ChannelAirspace airspace = channels.get(channel);
+		if (airspace == null) {
+			airspace = new ChannelAirspace(expiryMs);
+			channels.put(channel, airspace);
+		}
+		return airspace;
+	}
+
 	/**
-	 * Add a packet to the packet list. This function should be called by
-	 * a transceiver transmitting to this com.lorasim.physical.ReceiveManager's transmitter
-	 * @param p packet to add
+	 * Start listening on a channel. Packets that started before now can't be received.
+	 * Does nothing if the channel is already being listened on.
+	 * @param channel channel to listen on
+	 * @param millis current time
 	 */
-	public void addPacket(PhysicalPacket p) {
+	void listen(int channel, long millis) {
 		packetWafer.lock();
 		try {
-			activePackets.add(p);
+			ChannelAirspace airspace = getAirspace(channel);
+			if (!airspace.isListening()) {
+				airspace.listen(millis);
+				listening.add(airspace);
+			}
 		}
 		finally {
 			packetWafer.unlock();
 		}
 	}
 
-	public boolean isReceiving(PhysicalTransceiver t) {
-		PhysicalPacket lastPacket = null;
-		long millis = System.currentTimeMillis();
+	/**
+	 * Stop listening on a channel. Packets that are being received on it are lost.
+	 * @param channel channel to stop listening on
+	 */
+	void stopListening(int channel) {
 		packetWafer.lock();
 		try {
-			for (int i = activePackets.size()-1; i >= 0; i--) {
-				lastPacket = activePackets.get(i);
-				if (lastPacket.getChannel() == t.getChannel())
-					break;
-				else
-					lastPacket = null;
-			}
-			if (lastPacket == null) {
-				return false; // No packet
-			}
-			if (lastPacket.getEndMillis() < millis) {
-				return false; // Packet finished transmitting
-			}
-
-			for (PhysicalPacket rxd : activePackets) {
-				if (rxd != lastPacket && rxd.collidesWith(lastPacket)) {
-					return false;
-					// Interfering packet causes reception to fail
-				}
-
+			ChannelAirspace airspace = channels.get(channel);
+			if (airspace != null && airspace.isListening()) {
+				airspace.stopListening();
+				listening.remove(airspace);
 			}
 		}
 		finally {
 			packetWafer.unlock();
 		}
+	}
 
-		if (t.getLastChannelChangeMs() > lastPacket.getMillis()) { // Too recent of channel change
+	/**
+	 * Add a reception to the airspace. This function should be called by
+	 * the Medium when a transceiver transmits to this com.lorasim.physical.ReceiveManager's transmitter
+	 * @param t transceiver that owns this ReceiveManager
+	 * @param r reception to add. If it was sent by t, it occupies the airspace but can never be received.
+	 * @return true if one of t's demodulators started receiving the packet
+	 */
+	boolean addReception(PhysicalTransceiver t, Reception r) {
+		PhysicalPacket p = r.packet;
+		boolean own = p.getSender() == t.getAddress();
+		long millis = clock.currentTimeMillis();
+		packetWafer.lock();
+		try {
+			ChannelAirspace airspace = getAirspace(p.getChannel());
+			airspace.add(r, millis);
+			// A free demodulator locks on to a surviving packet it can decode and hear that started after it tuned in.
+			// A packet lost on the link never reaches the radio, so there is nothing to lock on to.
+			if (!own && !r.isDropped() && airspace.isListening() && t.canDemodulate(p.getModulation())
+					&& r.getRssiDbm() >= p.getModulation().getSensitivityDbm() && !r.isInterfered()
+					&& p.getMillis() > airspace.getListeningSince() && getLockedInFlight(millis) < t.getDemodulatorPaths()) {
+				airspace.lock(r);
+				return true;
+			}
 			return false;
 		}
-
-		return true; // One packet is still transmitting
+		finally {
+			packetWafer.unlock();
+		}
 	}
 
-	public PhysicalPacket receive(PhysicalTransceiver t) {
-		long millis = System.currentTimeMillis();
-
-		ArrayList<PhysicalPacket> matches = new ArrayList<>();
+	// Number of demodulators busy with in-flight receptions, on all channels being listened on. Lock must be held.
+	private int getLockedInFlight(long millis) {
+		int locked = 0;
+		for (ChannelAirspace airspace : listening) {
+			airspace.advance(millis);
+			locked += airspace.getLockedInFlight();
+		}
+		return locked;
+	}
 
+	public boolean isReceiving(PhysicalTransceiver t) {
+		long millis = clock.currentTimeMillis();
 		packetWafer.lock();
-		if(activePackets.size() >= gcSize)
-			for(int x = 0; x < activePackets.size(); x++){
-				if(activePackets.size() >= gcSize && activePackets.get(x).getEndMillis() + expiryMs < millis){
-					activePackets.remove(x);
-					x--;
-				}
-				else
-					break;
-			}
-		// Search over all active packets for ones that are receivable and old enough
 		try {
-			for (PhysicalPacket rxd : activePackets) {
-				if (rxd.getChannel() == t.getChannel() && rxd.getMillis() > t.getLastChannelChangeMs()) { // Filter packets by correct channel
-					if (rxd.canBeReceivedBy(t.getAddress())) { // Filter packets not already received or collided
-						matches.add(rxd);
-					}
-				}
-			}
+			for (ChannelAirspace airspace : listening)
+				if (airspace.isReceiving(millis))
+					return true; // A packet is still transmitting, and no interfering packet has destroyed it
+			return false;
 		}
 		finally {
 			packetWafer.unlock();
 		}
+	}
 
-		// For all receivable packets, see if they collide with any other packet
-		for (int x = 0; x < matches.size(); x++) {
-			for (int y = x + 1; y < matches.size(); y++) {
-				if (matches.get(x).collidesWith(matches.get(y))) {
-					matches.get(x).markInterfered();
-					matches.get(y).markInterfered();
-					System.out.println("Packets collided!");
-				}
-			}
-		}
+	/**
+	 * Take the next reception on a channel the transceiver listens on that one of its demodulators was
+	 * receiving, and that has now finished transmitting. It may or may not have arrived intact.
+	 * @param t transceiver that owns this ReceiveManager
+	 * @return the reception, or null if none have finished
+	 */
+	Reception pollFinished(PhysicalTransceiver t) {
+		long millis = clock.currentTimeMillis();
 
-		// Filter out packets that have not finished transmitting
-		for(int x = 0; x < matches.size(); x++) {
-			PhysicalPacket rxd = matches.get(x);
-			if (!(rxd.getEndMillis() < millis)){ // Filter packets that have been fully TX'd
-				matches.remove(rxd);
-				x--;
+		packetWafer.lock();
+		try {
+			for (ChannelAirspace airspace : listening) {
+				airspace.advance(millis);
+				Reception rxd = airspace.pollFinished();
+				if (rxd != null)
+					return rxd;
 			}
+			return null;
 		}
-		// Once collisions are removed, return the first match
-		for (PhysicalPacket ap : matches) {
-			if (ap.canBeReceivedBy(t.getAddress())) {
-				ap.markReceivedBy(t.getAddress());
-				return ap;
-			}
+		finally {
+			packetWafer.unlock();
 		}
-		return null;
 	}
 
-	// Clear out all packets from the queue
-	public void clear() {
-		try{
-			packetWafer.lock();
-			activePackets.clear();
+	/**
+	 * @return Time at which the next packet on a channel the transceiver listens on will have finished
+	 * transmitting, or -1 if nothing is in flight on those channels
+	 */
+	public long getNextEventMillis(PhysicalTransceiver t) {
+		packetWafer.lock();
+		try {
+			long next = -1;
+			for (ChannelAirspace airspace : listening) {
+				long end = airspace.getNextEndMillis();
+				if (end >= 0 && (next < 0 || end < next))
+					next = end;
+			}
+			return next < 0 ? -1 : next + 1; // Packets are finished once the clock is past their end
 		}
 		finally {
 			packetWafer.unlock();
 		}
 	}
 }
-
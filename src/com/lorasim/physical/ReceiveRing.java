@@ -0,0 +1,80 @@
+package com.lorasim.physical;
+
+import com.lorasim.sim.SimClock;
+import com.lorasim.sim.Signal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded single-producer, single-consumer ring buffer for received packets.
+ * The PHY loop is the only producer and the protocol layer the only consumer,
+ * so neither side takes a lock. Polling an empty ring is two volatile reads.
+ * With the BLOCK policy, a producer facing a full ring waits until the consumer takes a packet.
+ */
+class ReceiveRing {
+	private AtomicReferenceArray<PhysicalPacket> slots;
+	private int depth;
+	private OverflowPolicy policy;
+	private Signal spaceSignal; // Raised when the consumer takes a packet, for a producer blocked on a full ring
+	private AtomicLong head = new AtomicLong(); // Index of the next packet to read
+	private AtomicLong tail = new AtomicLong(); // Index of the next slot to write
+	private AtomicLong dropped = new AtomicLong();
+
+	ReceiveRing(int depth, OverflowPolicy policy, SimClock clock) {
+		if (depth < 1)
+			throw new IllegalArgumentException("Receive buffer depth must be at least 1: " + depth);
+		this.slots = new AtomicReferenceArray<>(depth);
+		this.depth = depth;
+		this.policy = policy;
+		this.spaceSignal = clock.newSignal();
+	}
+
+	/**
+	 * Add a packet to the ring. Must only be called from the producer.
+	 * @param p packet to add
+	 * @return true if the packet was buffered, false if it was dropped
+	 */
+	boolean offer(PhysicalPacket p) {
+		long t = tail.get();
+		long h;
+		while (t - (h = head.get()) >= depth) {
+			if (policy == OverflowPolicy.DROP_NEWEST) {
+				dropped.incrementAndGet();
+				return false;
+			} else if (policy == OverflowPolicy.DROP_OLDEST) {
+				// The consumer may take the oldest packet first, in which case there is room now
+				if (head.compareAndSet(h, h + 1))
+					dropped.incrementAndGet();
+			} else {
+				spaceSignal.await(-1);
+			}
+		}
+		slots.set((int) (t % depth), p);
+		tail.set(t + 1);
+		return true;
+	}
+
+	/**
+	 * Remove the oldest packet from the ring. Must only be called from the consumer.
+	 * @return the packet, or null if the ring is empty
+	 */
+	PhysicalPacket poll() {
+		while (true) {
+			long h = head.get();
+			if (h >= tail.get())
+				return null;
+			PhysicalPacket p = slots.get((int) (h % depth));
+			// Fails if the producer dropped this packet (and possibly reused its slot) in the meantime
+			if (head.compareAndSet(h, h + 1)) {
+				if (policy == OverflowPolicy.BLOCK)
+					spaceSignal.raise();
+				return p;
+			}
+		}
+	}
+
+	long getDropped() {
+		return dropped.get();
+	}
+}
@@ -0,0 +1,117 @@
+package com.lorasim.physical;
+
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * A transmission as heard by a single receiver. The packet itself is shared by every
+ * receiver, so this only records what happened to it on this particular link.
+ */
+class Reception {
+	final PhysicalPacket packet;
+	private double bitErrorRate; // Chance of each bit being flipped on this link
+	private double rssiDbm; // Received signal strength on this link
+	private boolean dropped = false; // Lost on this link
+	private boolean interfered = false; // Destroyed by an overlapping packet at this receiver
+	private boolean locked = false; // The receiver's radio started receiving this packet
+
+	/**
+	 * A transceiver's own transmission, which drowns out anything else it could hear
+	 */
+	Reception(PhysicalPacket packet) {
+		this(packet, 0, Double.POSITIVE_INFINITY);
+	}
+
+	Reception(PhysicalPacket packet, double bitErrorRate, double rssiDbm) {
+		this.packet = packet;
+		this.bitErrorRate = bitErrorRate;
+		this.rssiDbm = rssiDbm;
+	}
+
+	void markDropped() {
+		dropped = true;
+	}
+
+	boolean isDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Mark this reception as destroyed by another one overlapping it at the same receiver.
+	 * An interfered reception cannot be received.
+	 */
+	void markInterfered() {
+		interfered = true;
+	}
+
+	boolean isInterfered() {
+		return interfered;
+	}
+
+	void markLocked() {
+		locked = true;
+	}
+
+	boolean isLocked() {
+		return locked;
+	}
+
+	boolean collidesWith(Reception r) {
+		return packet.collidesWith(r.packet);
+	}
+
+	/**
+	 * @param interferer reception that overlaps this one
+	 * @return true if this reception is strong enough compared to the interferer to still be received
+	 */
+	boolean survives(Reception interferer) {
+		double sir = rssiDbm - interferer.rssiDbm;
+		return sir >= packet.getModulation().getCaptureThresholdDb(interferer.packet.getModulation());
+	}
+
+	double getRssiDbm() {
+		return rssiDbm;
+	}
+
+	/**
+	 * @return true if the packet arrived intact at this receiver
+	 */
+	boolean isIntact() {
+		return !dropped && !interfered;
+	}
+
+	/**
+	 * Apply this link's bit errors to the packet. The shared packet is never modified:
+	 * if any bits are flipped, the receiver gets its own corrupted copy.
+	 * @param random the receiver's random stream
+	 * @return the packet as this receiver got it
+	 */
+	PhysicalPacket applyBitErrors(SplittableRandom random) {
+		if (bitErrorRate <= 0)
+			return packet;
+		ByteBuffer data = packet.getBuffer();
+		long bits = data.remaining() * 8L;
+		double logKeep = Math.log(1 - Math.min(bitErrorRate, 1));
+		byte[] corrupted = null;
+		// Skip straight from one flipped bit to the next, instead of rolling for every bit
+		long pos = -1;
+		while (true) {
+			double skip = logKeep == 0 ? Double.POSITIVE_INFINITY : Math.floor(Math.log(1 - random.nextDouble()) / logKeep);
+			if (skip >= bits - pos - 1)
+				break;
+			pos += 1 + (long) skip;
+			if (corrupted == null) {
+				corrupted = new byte[data.remaining()];
+				data.get(corrupted);
+			}
+			corrupted[(int) (pos / 8)] ^= 0x80 >>> (pos % 8);
+		}
+		if (corrupted == null)
+			return packet;
+		return new PhysicalPacket(packet, ByteBuffer.wrap(corrupted));
+	}
+
+	long getEndMillis() {
+		return packet.getEndMillis();
+	}
+}
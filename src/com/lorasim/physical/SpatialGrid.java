@@ -0,0 +1,72 @@
+package com.lorasim.physical;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Uniform grid of transceivers by position. With cells as large as the longest radio range,
+ * every transceiver in range of a point is in the 3x3 block of cells around it.
+ */
+class SpatialGrid {
+	private double cellSizeM;
+	private HashMap<Long, ArrayList<PhysicalTransceiver>> cells;
+	private HashMap<PhysicalTransceiver, Long> cellOfTransceiver; // Cell each transceiver was last filed in
+
+	SpatialGrid(double cellSizeM) {
+		this.cellSizeM = cellSizeM;
+		this.cells = new HashMap<>();
+		this.cellOfTransceiver = new HashMap<>();
+	}
+
+	private long cellOf(double x, double y) {
+		return key((long) Math.floor(x / cellSizeM), (long) Math.floor(y / cellSizeM));
+	}
+
+	private static long key(long cx, long cy) {
+		return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+	}
+
+	void add(PhysicalTransceiver t) {
+		long cell = cellOf(t.getX(), t.getY());
+		cells.computeIfAbsent(cell, k -> new ArrayList<>()).add(t);
+		cellOfTransceiver.put(t, cell);
+	}
+
+	/**
+	 * Refile a transceiver that may have moved to another cell
+	 * @return The cell the transceiver was in before
+	 */
+	long move(PhysicalTransceiver t) {
+		long oldCell = cellOfTransceiver.get(t);
+		long newCell = cellOf(t.getX(), t.getY());
+		if (newCell != oldCell) {
+			ArrayList<PhysicalTransceiver> cell = cells.get(oldCell);
+			cell.remove(t);
+			if (cell.isEmpty())
+				cells.remove(oldCell);
+			cells.computeIfAbsent(newCell, k -> new ArrayList<>()).add(t);
+			cellOfTransceiver.put(t, newCell);
+		}
+		return oldCell;
+	}
+
+	long getCell(PhysicalTransceiver t) {
+		return cellOfTransceiver.get(t);
+	}
+
+	/**
+	 * Append every transceiver in the 3x3 block of cells around a cell
+	 * @param rtn list to add the transceivers to
+	 */
+	void collectNear(long cell, ArrayList<PhysicalTransceiver> rtn) {
+		long cx = cell >> 32;
+		long cy = (int) cell;
+		for (long dx = -1; dx <= 1; dx++) {
+			for (long dy = -1; dy <= 1; dy++) {
+				ArrayList<PhysicalTransceiver> transceivers = cells.get(key(cx + dx, cy + dy));
+				if (transceivers != null)
+					rtn.addAll(transceivers);
+			}
+		}
+	}
+}
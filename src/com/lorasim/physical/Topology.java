@@ -0,0 +1,150 @@
+package com.lorasim.physical;
+
+import java.util.ArrayList;
+
+/**
+ * Links transceivers by their positions, instead of by hand. The signal strength of each link is
+ * the sender's transmit power minus the path loss given by a PropagationModel, and transceivers
+ * are only linked if the signal is strong enough to be heard. A spatial grid limits the search
+ * to nearby transceivers, so connecting n transceivers takes roughly O(n) time.
+ * When a transceiver moves, only the links to and from transceivers near its old and new
+ * positions are updated.
+ */
+public class Topology {
+	private PropagationModel model;
+	private double minRssiDbm; // Weaker links are not created
+	private ArrayList<PhysicalTransceiver> transceivers;
+	private SpatialGrid grid; // Created by connect()
+	private ArrayList<PhysicalTransceiver> near; // Reused for every grid search
+	private long linkCount = 0;
+
+	/**
+	 * Create a topology that links transceivers that can hear each other at SF12 (the most sensitive setting)
+	 * @param model propagation model for every link
+	 */
+	public Topology(PropagationModel model) {
+		this(model, new LoRaModulation(12, 125000, 1, 8, true, true).getSensitivityDbm());
+	}
+
+	/**
+	 * @param model propagation model for every link
+	 * @param minRssiDbm weakest signal that is still linked. Weaker signals are treated as not there at all.
+	 */
+	public Topology(PropagationModel model, double minRssiDbm) {
+		this.model = model;
+		this.minRssiDbm = minRssiDbm;
+		this.transceivers = new ArrayList<>();
+		this.near = new ArrayList<>();
+	}
+
+	/**
+	 * Add a transceiver at its current position. Call connect() once all transceivers are added;
+	 * transceivers added after that are linked straight away.
+	 */
+	public void add(PhysicalTransceiver t) {
+		transceivers.add(t);
+		if (grid != null) {
+			grid.add(t);
+			relinkNear(t, grid.getCell(t));
+		}
+	}
+
+	public PropagationModel getModel() {
+		return model;
+	}
+
+	/**
+	 * @return Strength of a's signal at b, in dBm
+	 */
+	public double getRssiDbm(PhysicalTransceiver a, PhysicalTransceiver b) {
+		double dx = a.getX() - b.getX();
+		double dy = a.getY() - b.getY();
+		return a.getTxPowerDbm() - model.getPathLossDb(Math.sqrt(dx * dx + dy * dy));
+	}
+
+	/**
+	 * @return Furthest distance (in meters) at which any transceiver in this topology can be heard
+	 */
+	public double getMaxRangeM() {
+		double maxTxPowerDbm = Double.NEGATIVE_INFINITY;
+		for (PhysicalTransceiver t : transceivers)
+			maxTxPowerDbm = Math.max(maxTxPowerDbm, t.getTxPowerDbm());
+		return model.getDistanceM(maxTxPowerDbm - minRssiDbm);
+	}
+
+	/**
+	 * Link every pair of transceivers that can hear each other.
+	 * Links that already exist (such as ones added by hand) are kept as they are.
+	 */
+	public void connect() {
+		if (transceivers.isEmpty())
+			return;
+		grid = new SpatialGrid(Math.max(getMaxRangeM(), 1));
+		for (PhysicalTransceiver t : transceivers)
+			grid.add(t);
+		for (PhysicalTransceiver t : transceivers) {
+			near.clear();
+			grid.collectNear(grid.getCell(t), near);
+			for (PhysicalTransceiver n : near) {
+				if (n == t || t.getLink(n) != null)
+					continue;
+				double rssiDbm = getRssiDbm(t, n);
+				if (rssiDbm >= minRssiDbm) {
+					t.addNeighbor(n, 0, 0, rssiDbm);
+					linkCount++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Update the links of a transceiver that has moved. Links to and from it are added, removed,
+	 * or have their signal strength changed in place. The range of the spatial grid is fixed when
+	 * connect() is called, so later increases in transmit power are not taken into account.
+	 * @param t transceiver that has moved, which must have been added to this topology
+	 */
+	public void update(PhysicalTransceiver t) {
+		if (grid == null)
+			throw new IllegalStateException("connect() must be called before transceivers are moved");
+		long oldCell = grid.move(t);
+		relinkNear(t, oldCell);
+	}
+
+	// Relink t with everything near its current cell, and near oldCell if it was somewhere else before
+	private void relinkNear(PhysicalTransceiver t, long oldCell) {
+		long cell = grid.getCell(t);
+		near.clear();
+		grid.collectNear(cell, near);
+		if (oldCell != cell)
+			grid.collectNear(oldCell, near);
+		for (PhysicalTransceiver n : near) {
+			if (n == t)
+				continue;
+			relink(t, n);
+			relink(n, t);
+		}
+	}
+
+	private void relink(PhysicalTransceiver from, PhysicalTransceiver to) {
+		double rssiDbm = getRssiDbm(from, to);
+		Link link = from.getLink(to);
+		if (rssiDbm >= minRssiDbm) {
+			if (link == null) {
+				from.addNeighbor(to, 0, 0, rssiDbm);
+				linkCount++;
+			} else {
+				link.rssiDbm = rssiDbm;
+			}
+		} else if (link != null) {
+			from.removeNeighbor(to);
+			linkCount--;
+		}
+	}
+
+	/**
+	 * @return Number of one-way links in this topology
+	 */
+	public long getLinkCount() {
+		return linkCount;
+	}
+}
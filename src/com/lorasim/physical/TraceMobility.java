@@ -0,0 +1,44 @@
+package com.lorasim.physical;
+
+/**
+ * Follows a recorded trace of positions, moving in a straight line between consecutive points.
+ * Before the first point and after the last one, the transceiver stays put.
+ */
+public class TraceMobility implements MobilityModel {
+	private long[] millis; // Time of each point, in increasing order
+	private double[] xs, ys;
+	private int segment = 0; // Index of the point the transceiver last passed
+
+	/**
+	 * @param millis time of each point, in increasing order
+	 * @param xs x position of each point, in meters
+	 * @param ys y position of each point, in meters
+	 */
+	public TraceMobility(long[] millis, double[] xs, double[] ys) {
+		if (millis.length == 0 || millis.length != xs.length || millis.length != ys.length)
+			throw new IllegalArgumentException("A trace needs the same number of times and positions, and at least one point");
+		this.millis = millis;
+		this.xs = xs;
+		this.ys = ys;
+	}
+
+	@Override
+	public boolean move(PhysicalTransceiver t, long now) {
+		while (segment < millis.length - 1 && millis[segment + 1] <= now)
+			segment++;
+		double x, y;
+		if (now <= millis[0] || segment == millis.length - 1) {
+			int point = now <= millis[0] ? 0 : segment;
+			x = xs[point];
+			y = ys[point];
+		} else {
+			double f = (double) (now - millis[segment]) / (millis[segment + 1] - millis[segment]);
+			x = xs[segment] + f * (xs[segment + 1] - xs[segment]);
+			y = ys[segment] + f * (ys[segment + 1] - ys[segment]);
+		}
+		if (x == t.getX() && y == t.getY())
+			return false;
+		t.setPosition(x, y);
+		return true;
+	}
+}
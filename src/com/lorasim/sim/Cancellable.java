@@ -0,0 +1,11 @@
+package com.lorasim.sim;
+
+/**
+ * Handle to an action scheduled on a SimClock
+ */
+public interface Cancellable {
+	/**
+	 * Stop the action from running, if it hasn't run yet
+	 */
+	public void cancel();
+}
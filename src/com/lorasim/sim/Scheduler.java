@@ -0,0 +1,217 @@
+package com.lorasim.sim;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Discrete-event SimClock. Time is virtual and jumps straight to the next queued event,
+ * so a simulation runs as fast as the host can process its events.
+ *
+ * Processes started with startProcess() still run on their own threads, but the scheduler
+ * hands control to exactly one of them at a time and waits for it to sleep again before
+ * moving on. Events at the same time run in the order they were scheduled, which makes
+ * every run of a simulation identical.
+ */
+public class Scheduler implements SimClock {
+	private PriorityQueue<Event> events;
+	private long now = 0; // Current virtual time
+	private long eventCount = 0; // Number of events scheduled so far, used to break ties
+	private int cancelledCount = 0; // Number of cancelled events still in the queue
+	private Semaphore schedulerWafer; // Released by the running process when it yields back to the scheduler
+	private ThreadLocal<Process> currentProcess;
+
+	public Scheduler() {
+		events = new PriorityQueue<>();
+		schedulerWafer = new Semaphore(0);
+		currentProcess = new ThreadLocal<>();
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return now;
+	}
+
+	@Override
+	public void sleep(long ms) {
+		Process p = currentProcess.get();
+		if (p == null)
+			throw new IllegalStateException("sleep() can only be called from a process started on this Scheduler");
+		schedule(ms, p::resume);
+		p.yieldToScheduler();
+	}
+
+	@Override
+	public Cancellable schedule(long delayMs, Runnable action) {
+		return queue(delayMs, action);
+	}
+
+	private Event queue(long delayMs, Runnable action) {
+		if (delayMs < 0)
+			delayMs = 0;
+		Event e = new Event(now + delayMs, eventCount++, action);
+		events.add(e);
+		return e;
+	}
+
+	@Override
+	public void startProcess(Runnable process, String name) {
+		Process p = new Process(process);
+		Thread t = new Thread(p, name);
+		t.setDaemon(true); // Processes are abandoned, not joined, when the simulation ends
+		t.start();
+		schedule(0, p::resume);
+	}
+
+	@Override
+	public Signal newSignal() {
+		return new SchedulerSignal();
+	}
+
+	/**
+	 * Process events until the queue is empty or the next event is after endMillis.
+	 * The clock is left at endMillis.
+	 * @param endMillis Virtual time to run until
+	 */
+	public void runUntil(long endMillis) {
+		while (!events.isEmpty() && events.peek().time <= endMillis) {
+			Event e = events.poll();
+			if (e.cancelled) {
+				cancelledCount--;
+				continue;
+			}
+			e.done = true;
+			now = e.time;
+			e.action.run();
+		}
+		if (endMillis > now)
+			now = endMillis;
+	}
+
+	/**
+	 * Process events for the given amount of virtual time
+	 * @param ms Virtual time to run for
+	 */
+	public void runFor(long ms) {
+		runUntil(now + ms);
+	}
+
+	/**
+	 * @return Number of events waiting in the queue, not counting cancelled ones
+	 */
+	public int getPendingEvents() {
+		return events.size() - cancelledCount;
+	}
+
+	// Cancelled events are skipped when they come up, but once they make up half the queue they are
+	// removed all at once, so long-lived timeouts that are almost always cancelled don't pile up
+	private void purgeCancelled() {
+		if (cancelledCount > 64 && cancelledCount > events.size() / 2) {
+			events.removeIf(e -> e.cancelled);
+			cancelledCount = 0;
+		}
+	}
+
+	private class Event implements Comparable<Event>, Cancellable {
+		private long time;
+		private long seq;
+		private Runnable action;
+		private boolean cancelled = false;
+		private boolean done = false; // Taken off the queue and run
+
+		private Event(long time, long seq, Runnable action) {
+			this.time = time;
+			this.seq = seq;
+			this.action = action;
+		}
+
+		@Override
+		public void cancel() {
+			if (cancelled || done)
+				return;
+			cancelled = true;
+			cancelledCount++;
+			purgeCancelled();
+		}
+
+		@Override
+		public int compareTo(Event o) {
+			if (time != o.time)
+				return Long.compare(time, o.time);
+			return Long.compare(seq, o.seq);
+		}
+	}
+
+	private class SchedulerSignal implements Signal {
+		private boolean raised = false;
+		private Process waiter; // Process blocked in await(), if any
+		private Event timeoutEvent; // Wakes the waiter when its timeout expires
+
+		@Override
+		public void raise() {
+			raised = true;
+			if (waiter != null) {
+				Process p = waiter;
+				waiter = null;
+				if (timeoutEvent != null)
+					timeoutEvent.cancel();
+				schedule(0, p::resume);
+			}
+		}
+
+		@Override
+		public boolean await(long timeoutMs) {
+			Process p = currentProcess.get();
+			if (p == null)
+				throw new IllegalStateException("await() can only be called from a process started on this Scheduler");
+			if (!raised && timeoutMs != 0) {
+				waiter = p;
+				timeoutEvent = timeoutMs < 0 ? null : queue(timeoutMs, () -> {
+					waiter = null;
+					p.resume();
+				});
+				p.yieldToScheduler();
+			}
+			timeoutEvent = null;
+			boolean rtn = raised;
+			raised = false;
+			return rtn;
+		}
+	}
+
+	private class Process implements Runnable {
+		private Runnable body;
+		private Semaphore wakeWafer; // Released by the scheduler to let this process run
+		private boolean finished = false;
+
+		private Process(Runnable body) {
+			this.body = body;
+			this.wakeWafer = new Semaphore(0);
+		}
+
+		@Override
+		public void run() {
+			wakeWafer.acquireUninterruptibly();
+			currentProcess.set(this);
+			try {
+				body.run();
+			} finally {
+				finished = true;
+				schedulerWafer.release();
+			}
+		}
+
+		// Called on the scheduler thread: run this process until it sleeps or finishes
+		private void resume() {
+			if (finished)
+				return;
+			wakeWafer.release();
+			schedulerWafer.acquireUninterruptibly();
+		}
+
+		// Called on the process thread: give control back to the scheduler and wait to be resumed
+		private void yieldToScheduler() {
+			schedulerWafer.release();
+			wakeWafer.acquireUninterruptibly();
+		}
+	}
+}
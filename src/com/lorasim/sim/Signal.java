@@ -0,0 +1,20 @@
+package com.lorasim.sim;
+
+/**
+ * Wakes up a single waiting process when something it cares about happens.
+ * A signal raised while nobody is waiting is remembered, so the next await() returns immediately.
+ * Signals are created by a SimClock and only work with processes on that clock.
+ */
+public interface Signal {
+	/**
+	 * Wake the process waiting on this signal, or let its next await() return immediately
+	 */
+	public void raise();
+
+	/**
+	 * Block the calling process until the signal is raised or the timeout expires
+	 * @param timeoutMs Maximum time to wait, or a negative number to wait forever
+	 * @return true if the signal was raised, false if the timeout expired
+	 */
+	public boolean await(long timeoutMs);
+}
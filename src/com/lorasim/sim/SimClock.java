@@ -0,0 +1,39 @@
+package com.lorasim.sim;
+
+/**
+ * Source of time for the simulator. Every timing decision made by the
+ * transceivers goes through a SimClock, so the same code can run against
+ * the wall clock or against a virtual clock that skips straight to the next event.
+ */
+public interface SimClock {
+	/**
+	 * @return Current time in milliseconds
+	 */
+	public long currentTimeMillis();
+
+	/**
+	 * Block the calling process for the given number of milliseconds.
+	 * @param ms Time to sleep
+	 */
+	public void sleep(long ms);
+
+	/**
+	 * Run an action once, after the given delay. The action must not block.
+	 * @param delayMs Delay before the action is run
+	 * @param action Action to run
+	 * @return A handle to cancel the action with, if it is no longer needed
+	 */
+	public Cancellable schedule(long delayMs, Runnable action);
+
+	/**
+	 * Start a long-running process (such as a transceiver main loop) on this clock.
+	 * @param process Process to start
+	 * @param name Name of the process, for debugging
+	 */
+	public void startProcess(Runnable process, String name);
+
+	/**
+	 * @return A new signal that processes on this clock can wait on
+	 */
+	public Signal newSignal();
+}
@@ -0,0 +1,83 @@
+package com.lorasim.sim;
+
+import com.lorasim.misc.Utils;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimClock backed by the system clock. One simulated millisecond takes one real millisecond,
+ * and every process runs on its own thread.
+ */
+public class WallClock implements SimClock {
+	public static final WallClock INSTANCE = new WallClock();
+
+	private ScheduledThreadPoolExecutor timer;
+
+	private WallClock() {
+		timer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "WallClock timer");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.setRemoveOnCancelPolicy(true); // Don't keep cancelled actions around until they were due
+	}
+
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public void sleep(long ms) {
+		Utils.sleep((int) ms);
+	}
+
+	@Override
+	public Cancellable schedule(long delayMs, Runnable action) {
+		ScheduledFuture<?> future = timer.schedule(action, delayMs, TimeUnit.MILLISECONDS);
+		return () -> future.cancel(false);
+	}
+
+	@Override
+	public void startProcess(Runnable process, String name) {
+		new Thread(process, name).start();
+	}
+
+	@Override
+	public Signal newSignal() {
+		return new WallSignal();
+	}
+
+	private static class WallSignal implements Signal {
+		private boolean raised = false;
+
+		@Override
+		public synchronized void raise() {
+			raised = true;
+			notify();
+		}
+
+		@Override
+		public synchronized boolean await(long timeoutMs) {
+			long deadline = System.currentTimeMillis() + timeoutMs;
+			try {
+				while (!raised) {
+					if (timeoutMs < 0) {
+						wait();
+					} else {
+						long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0)
+							return false;
+						wait(remaining);
+					}
+				}
+			} catch (InterruptedException e) {
+				return false;
+			}
+			raised = false;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.lorasim.test;
+
+import com.lorasim.network.DeliveryReport;
+import com.lorasim.network.ProtocolTransceiver;
+import com.lorasim.physical.Medium;
+import com.lorasim.sim.Scheduler;
+
+import java.util.ArrayList;
+
+/**
+ * Three sensors report small readings through a forwarder to a sink, with and without aggregation.
+ * Aggregation trades some latency for fewer frames on the air: each hop may hold a reading back
+ * for up to the hold time, so over two hops readings are held for up to twice that.
+ */
+public class TestAggregation {
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		String withoutAggregation = run(0, 0, seed);
+		String withAggregation = run(200, 6000, seed);
+		System.out.println("Without aggregation: " + withoutAggregation);
+		System.out.println("With aggregation:    " + withAggregation);
+	}
+
+	// Returns a summary line, so the results aren't lost among the protocol's log output
+	private static String run(int maxAggregateLength, int maxHoldMs, long seed){
+		long simulatedMs = 6 * 60 * 60 * 1000;
+		long sendIntervalMs = 5000;
+		Scheduler scheduler = new Scheduler();
+		Medium medium = new Medium(scheduler, seed);
+
+		ProtocolTransceiver sink = new ProtocolTransceiver(1, medium);
+		ProtocolTransceiver forwarder = new ProtocolTransceiver(2, medium);
+		ProtocolTransceiver[] sensors = new ProtocolTransceiver[3];
+		sink.addNeighbor(forwarder, 0, 1e-4);
+		forwarder.addNeighbor(sink, 0, 1e-4);
+		forwarder.addRoutingEntry(1, 1);
+		for(int x = 0; x < sensors.length; x++){
+			sensors[x] = new ProtocolTransceiver(3 + x, medium);
+			sensors[x].addNeighbor(forwarder, 0, 1e-4);
+			forwarder.addNeighbor(sensors[x], 0, 1e-4);
+			sensors[x].addRoutingEntry(1, 2);
+		}
+
+		forwarder.setAggregation(maxAggregateLength, maxHoldMs);
+		forwarder.startThread();
+		sink.startThread();
+		ArrayList<DeliveryReport> reports = new ArrayList<>();
+		for(int x = 0; x < sensors.length; x++){
+			ProtocolTransceiver sensor = sensors[x];
+			long offsetMs = x * sendIntervalMs / sensors.length; // Don't start all the sensors at once
+			sensor.setAggregation(maxAggregateLength, maxHoldMs);
+			sensor.startThread();
+			scheduler.startProcess(() -> {
+				scheduler.sleep(offsetMs);
+				for(int y = 0; ; y++){
+					sensor.sendAsync(1, ("T=" + (20 + y % 5)).getBytes(), sendIntervalMs * 10).thenAccept(reports::add);
+					scheduler.sleep(sendIntervalMs);
+				}
+			}, "Sensor " + (3 + x));
+		}
+		scheduler.runUntil(simulatedMs);
+
+		long queued = 0;
+		for(ProtocolTransceiver sensor : sensors)
+			queued += sensor.getQueuedPacketCount();
+		long totalLatencyMs = 0;
+		for(DeliveryReport report : reports)
+			totalLatencyMs += report.getLatencyMs();
+		return "delivered " + sink.getDeliveredPacketCount() + " of " + queued + " readings in "
+				+ medium.getTransmissionCount() + " frames, mean latency " + (reports.isEmpty() ? 0 : totalLatencyMs / reports.size()) + "ms";
+	}
+}
@@ -0,0 +1,61 @@
+package com.lorasim.test;
+
+import com.lorasim.network.ProtocolTransceiver;
+import com.lorasim.physical.Medium;
+import com.lorasim.sim.Scheduler;
+
+/**
+ * Compares per-hop goodput of stop-and-wait against bursts of several packets per RTS/CTS,
+ * by sending a bulk upload over two hops with different window sizes on a virtual clock.
+ */
+public class TestBurst {
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		StringBuilder results = new StringBuilder();
+		for(int windowSize : new int[]{1, 4, 8, 15})
+			results.append(run(windowSize, seed)).append('\n');
+		System.out.print(results);
+	}
+
+	// Returns a summary line, so the results aren't lost among the protocol's log output
+	private static String run(int windowSize, long seed){
+		int packetCount = 60;
+		int payloadLength = 50;
+		Scheduler scheduler = new Scheduler();
+		Medium medium = new Medium(scheduler, seed);
+
+		ProtocolTransceiver sink = new ProtocolTransceiver(1, medium);
+		ProtocolTransceiver forwarder = new ProtocolTransceiver(2, medium);
+		ProtocolTransceiver source = new ProtocolTransceiver(3, medium);
+		ProtocolTransceiver[] nodes = {sink, forwarder, source};
+
+		double bitErrorRate = 1e-4;
+		sink.addNeighbor(forwarder, 0, bitErrorRate);
+		forwarder.addNeighbor(sink, 0, bitErrorRate);
+		forwarder.addNeighbor(source, 0, bitErrorRate);
+		source.addNeighbor(forwarder, 0, bitErrorRate);
+		forwarder.addRoutingEntry(1, 1);
+		source.addRoutingEntry(1, 2);
+
+		for(ProtocolTransceiver node : nodes){
+			node.setWindowSize(windowSize);
+			node.setSendQueueCapacity(packetCount);
+			node.startThread();
+		}
+
+		long[] doneMs = new long[1];
+		scheduler.startProcess(() -> {
+			for(int x = 0; x < packetCount; x++)
+				source.send(1, new byte[payloadLength]);
+			while(sink.getDeliveredPacketCount() < packetCount)
+				scheduler.sleep(10);
+			doneMs[0] = scheduler.currentTimeMillis();
+		}, "Bulk upload");
+		scheduler.runUntil(60 * 60 * 1000);
+
+		long elapsedMs = doneMs[0] > 0 ? doneMs[0] : scheduler.currentTimeMillis();
+		return "Window " + windowSize + ": delivered " + sink.getDeliveredPacketCount() + " of " + packetCount
+				+ " in " + elapsedMs + "ms, per-hop goodput " + forwarder.getReceivedPayloadBytes() * 8000 / elapsedMs + " / "
+				+ sink.getReceivedPayloadBytes() * 8000 / elapsedMs + " bit/s";
+	}
+}
@@ -0,0 +1,103 @@
+package com.lorasim.test;
+
+import com.lorasim.network.FragmentationLayer;
+import com.lorasim.network.IncomingTransfer;
+import com.lorasim.network.ProtocolTransceiver;
+import com.lorasim.network.TransferListener;
+import com.lorasim.physical.Medium;
+import com.lorasim.sim.Scheduler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Two nodes send firmware images to a sink through a forwarder. The sink streams the first image
+ * as it arrives, then both nodes send at once into a reassembly budget too small for both.
+ */
+public class TestFragmentation {
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		Scheduler scheduler = new Scheduler();
+		Medium medium = new Medium(scheduler, seed);
+
+		ProtocolTransceiver sink = new ProtocolTransceiver(1, medium);
+		ProtocolTransceiver forwarder = new ProtocolTransceiver(2, medium);
+		ProtocolTransceiver source1 = new ProtocolTransceiver(3, medium);
+		ProtocolTransceiver source2 = new ProtocolTransceiver(4, medium);
+		sink.addNeighbor(forwarder, 0, 1e-4);
+		forwarder.addNeighbor(sink, 0, 1e-4);
+		forwarder.addNeighbor(source1, 0, 1e-4);
+		forwarder.addNeighbor(source2, 0, 1e-4);
+		source1.addNeighbor(forwarder, 0, 1e-4);
+		source2.addNeighbor(forwarder, 0, 1e-4);
+		forwarder.addRoutingEntry(1, 1);
+		source1.addRoutingEntry(1, 2);
+		source2.addRoutingEntry(1, 2);
+
+		FragmentationLayer sinkLayer = new FragmentationLayer(sink);
+		FragmentationLayer layer1 = new FragmentationLayer(source1);
+		FragmentationLayer layer2 = new FragmentationLayer(source2);
+		sinkLayer.setReassemblyBudget(12 * 1024);
+
+		// Read each transfer as it arrives, and check it against the image that was sent
+		byte[] image1 = newImage(10 * 1024, seed);
+		byte[] image2 = newImage(8 * 1024, seed + 1);
+		ArrayList<String> results = new ArrayList<>();
+		sinkLayer.setTransferListener(new TransferListener() {
+			@Override
+			public void onTransferStarted(IncomingTransfer transfer) {
+				scheduler.startProcess(() -> {
+					CRC32 crc = new CRC32();
+					byte[] chunk = new byte[64];
+					int total = 0;
+					try (InputStream in = transfer.getInputStream()) {
+						for(int count; (count = in.read(chunk)) >= 0; total += count)
+							crc.update(chunk, 0, count);
+						results.add(transfer + ": streamed " + total + " bytes by " + scheduler.currentTimeMillis() + "ms, checksum "
+								+ (crc.getValue() == checksum(transfer.getOrigin() == 3 ? image1 : image2) ? "OK" : "MISMATCH"));
+					} catch (IOException e) {
+						results.add(transfer + ": streamed " + total + " bytes, then " + e.getMessage());
+					}
+				}, "Reader " + transfer.getOrigin());
+			}
+		});
+
+		for(ProtocolTransceiver node : new ProtocolTransceiver[]{sink, forwarder, source1, source2}){
+			node.setWindowSize(8);
+			node.startThread();
+		}
+		scheduler.startProcess(() -> {
+			layer1.sendBlocking(1, image1);
+			scheduler.sleep(10 * 60 * 1000);
+			layer1.sendBlocking(1, image1);
+		}, "Upload 3");
+		scheduler.startProcess(() -> {
+			scheduler.sleep(10 * 60 * 1000);
+			layer2.sendBlocking(1, image2);
+		}, "Upload 4");
+		scheduler.runUntil(30 * 60 * 1000);
+
+		System.out.println("MTU " + sinkLayer.getMtu() + " bytes, up to " + sinkLayer.getMaxTransferLength() + " bytes per transfer");
+		for(String result : results)
+			System.out.println(result);
+		System.out.println("Completed " + sinkLayer.getCompletedTransferCount() + ", evicted " + sinkLayer.getEvictedTransferCount()
+				+ ", reassembly budget " + sinkLayer.getReassemblyBudget() + " bytes, " + sinkLayer.getReassemblyBytes() + " in use");
+	}
+
+	private static byte[] newImage(int length, long seed){
+		byte[] image = new byte[length];
+		SplittableRandom random = new SplittableRandom(seed);
+		for(int x = 0; x < length; x++)
+			image[x] = (byte) random.nextInt(256);
+		return image;
+	}
+
+	private static long checksum(byte[] data){
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,52 @@
+package com.lorasim.test;
+
+import com.lorasim.physical.GatewayTransceiver;
+import com.lorasim.physical.LoRaModulation;
+import com.lorasim.physical.Medium;
+import com.lorasim.physical.OverflowPolicy;
+import com.lorasim.physical.PhysicalPacket;
+import com.lorasim.physical.PhysicalTransceiver;
+import com.lorasim.sim.Scheduler;
+
+/**
+ * Eight nodes, each on a different channel and spreading factor, all transmit at once.
+ * An 8 path gateway should receive every packet, while a single radio receives only the one it is tuned to.
+ */
+public class TestGateway {
+	public static void main(String[] args){
+		Scheduler scheduler = new Scheduler();
+		Medium medium = new Medium(scheduler);
+
+		GatewayTransceiver gateway = new GatewayTransceiver(1, medium, 433, 434);
+		PhysicalTransceiver radio = new PhysicalTransceiver(2, medium);
+		radio.setReceiveBuffer(8, OverflowPolicy.DROP_NEWEST);
+		scheduler.startProcess(gateway, "Gateway");
+		scheduler.startProcess(radio, "Radio");
+
+		for(int x = 0; x < 8; x++){
+			PhysicalTransceiver node = new PhysicalTransceiver(10 + x, medium);
+			node.setChannel(433 + x % 2);
+			node.setModulation(new LoRaModulation(7 + x / 2, 125000, 1, 8, true, true));
+			node.addNeighbor(gateway, 0);
+			node.addNeighbor(radio, 0);
+			String message = "Node " + node.getAddress() + " on " + node.getChannel() + " " + node.getModulation();
+			scheduler.schedule(100, () -> node.send(message.getBytes(), false));
+		}
+		scheduler.runFor(5000);
+
+		System.out.println("Gateway received:");
+		int gatewayCount = 0;
+		PhysicalPacket p;
+		while((p = gateway.receive()) != null){
+			System.out.println("  " + p.getDataStr());
+			gatewayCount++;
+		}
+		System.out.println("Single radio received:");
+		int radioCount = 0;
+		while((p = radio.receive()) != null){
+			System.out.println("  " + p.getDataStr());
+			radioCount++;
+		}
+		System.out.println("Gateway: " + gatewayCount + " of 8, single radio: " + radioCount + " of 8");
+	}
+}
@@ -0,0 +1,76 @@
+package com.lorasim.test;
+
+import com.lorasim.network.DeliveryReport;
+import com.lorasim.network.ProtocolTransceiver;
+import com.lorasim.physical.Medium;
+import com.lorasim.sim.Scheduler;
+
+import java.util.ArrayList;
+
+/**
+ * A source reports to a sink across a diamond where one side has a lossy link, once with static
+ * routes through the lossy side, and once with routes chosen by link quality (ETX), which should
+ * move the traffic to the clean side and cut the retransmissions.
+ *
+ *       2
+ *     /   \
+ *   1       4 - 5
+ *     \   /
+ *       3     (3-4 loses 40% of frames)
+ */
+public class TestLinkQuality {
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		String staticRoutes = run(false, seed);
+		String etxRoutes = run(true, seed);
+		System.out.println("Static routes: " + staticRoutes);
+		System.out.println("ETX routes:    " + etxRoutes);
+	}
+
+	// Returns a summary line, so the results aren't lost among the protocol's log output
+	private static String run(boolean routeByLinkQuality, long seed){
+		long sendIntervalMs = 30 * 1000;
+		Scheduler scheduler = new Scheduler();
+		Medium medium = new Medium(scheduler, seed);
+
+		ProtocolTransceiver[] nodes = new ProtocolTransceiver[6];
+		for(int x = 1; x < nodes.length; x++)
+			nodes[x] = new ProtocolTransceiver(x, medium);
+		int[][] links = {{1, 2, 0}, {1, 3, 0}, {2, 4, 0}, {3, 4, 40}, {4, 5, 0}}; // Nodes and loss %
+		for(int[] link : links){
+			nodes[link[0]].addNeighbor(nodes[link[1]], link[2], 1e-4);
+			nodes[link[1]].addNeighbor(nodes[link[0]], link[2], 1e-4);
+		}
+		for(int x = 1; x < nodes.length; x++){
+			if(routeByLinkQuality)
+				nodes[x].enableRouting(60 * 1000);
+			nodes[x].startThread();
+		}
+		if(!routeByLinkQuality){
+			nodes[5].addRoutingEntry(1, 4);
+			nodes[4].addRoutingEntry(1, 3);
+			nodes[3].addRoutingEntry(1, 1);
+		}
+
+		ProtocolTransceiver source = nodes[5];
+		ArrayList<DeliveryReport> reports = new ArrayList<>();
+		long[] sent = new long[1];
+		scheduler.startProcess(() -> {
+			while(source.getRoute(1) < 0)
+				scheduler.sleep(1000);
+			while(true){
+				source.sendAsync(1, ("reading " + sent[0]).getBytes(), sendIntervalMs * 10).thenAccept(reports::add);
+				sent[0]++;
+				scheduler.sleep(sendIntervalMs);
+			}
+		}, "Sensor 5");
+		scheduler.runUntil(4 * 60 * 60 * 1000);
+
+		long retries = 0;
+		for(DeliveryReport report : reports)
+			retries += report.getRetries();
+		return "delivered " + reports.size() + " of " + sent[0] + " through " + nodes[4].getRoute(1)
+				+ String.format(", %.2f retries per packet, ETX 4-2 %.2f, 4-3 %.2f", reports.isEmpty() ? 0.0 : (double) retries / reports.size(),
+				nodes[4].getLinkEtx(2), nodes[4].getLinkEtx(3));
+	}
+}
@@ -37,6 +37,8 @@ public class TestPhysical {
 		System.out.println("One message should arrive");
 
 		Thread.sleep(3000);
+		System.out.println("Packets dropped by full receive buffers: " + (baseStation.getDroppedPackets()
+				+ forwarder.getDroppedPackets() + client.getDroppedPackets()));
 		System.out.println("End Simulation");
 		System.exit(0);
 	}
@@ -0,0 +1,84 @@
+package com.lorasim.test;
+
+import com.lorasim.network.ProtocolTransceiver;
+import com.lorasim.physical.Medium;
+import com.lorasim.sim.Scheduler;
+
+/**
+ * Five nodes without static routes learn them by distance vector. A source two hops past a
+ * diamond reports to a sink, and halfway through, the link its traffic uses is cut, so the
+ * routes have to be repaired through the other side of the diamond.
+ *
+ *       2
+ *     /   \
+ *   1       4 - 5
+ *     \   /
+ *       3
+ */
+public class TestRouting {
+	public static void main(String[] args){
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+		long advertisementIntervalMs = 60 * 1000;
+		long sendIntervalMs = 30 * 1000;
+		long cutMs = 60 * 60 * 1000;
+		Scheduler scheduler = new Scheduler();
+		Medium medium = new Medium(scheduler, seed);
+
+		ProtocolTransceiver[] nodes = new ProtocolTransceiver[6];
+		for(int x = 1; x < nodes.length; x++)
+			nodes[x] = new ProtocolTransceiver(x, medium);
+		int[][] links = {{1, 2}, {1, 3}, {2, 4}, {3, 4}, {4, 5}};
+		for(int[] link : links){
+			nodes[link[0]].addNeighbor(nodes[link[1]], 0, 1e-4);
+			nodes[link[1]].addNeighbor(nodes[link[0]], 0, 1e-4);
+		}
+		for(int x = 1; x < nodes.length; x++){
+			nodes[x].enableRouting(advertisementIntervalMs);
+			nodes[x].startThread();
+		}
+
+		ProtocolTransceiver sink = nodes[1];
+		ProtocolTransceiver source = nodes[5];
+		StringBuilder results = new StringBuilder();
+		long[] sent = new long[1];
+		long[] deliveredBeforeCut = new long[1];
+		scheduler.startProcess(() -> {
+			while(source.getRoute(1) < 0)
+				scheduler.sleep(1000);
+			results.append("Route from 5 to 1 after ").append(scheduler.currentTimeMillis()).append("ms, through ")
+					.append(nodes[4].getRoute(1)).append('\n');
+			while(true){
+				source.send(1, ("reading " + sent[0]).getBytes());
+				sent[0]++;
+				scheduler.sleep(sendIntervalMs);
+			}
+		}, "Sensor 5");
+		scheduler.startProcess(() -> {
+			scheduler.sleep(cutMs);
+			int via = nodes[4].getRoute(1);
+			nodes[4].getPhysicalTransceiver().removeNeighbor(nodes[via].getPhysicalTransceiver());
+			nodes[via].getPhysicalTransceiver().removeNeighbor(nodes[4].getPhysicalTransceiver());
+			deliveredBeforeCut[0] = sink.getDeliveredPacketCount();
+			results.append("Cut link 4-").append(via).append(" at ").append(cutMs).append("ms\n");
+			while(nodes[4].getRoute(1) == via || nodes[4].getRoute(1) < 0)
+				scheduler.sleep(1000);
+			results.append("Route from 4 to 1 moved to ").append(nodes[4].getRoute(1)).append(" after ")
+					.append(scheduler.currentTimeMillis() - cutMs).append("ms\n");
+		}, "Link cut");
+		scheduler.runUntil(2 * cutMs);
+
+		long advertisementAirtimeMs = 0;
+		long dataAirtimeMs = 0;
+		for(int x = 1; x < nodes.length; x++){
+			results.append("Node ").append(x).append(": routes to ").append(nodes[x].getRouteCount()).append(" nodes, ")
+					.append(nodes[x].getAdvertisementCount()).append(" advertisements\n");
+			advertisementAirtimeMs += nodes[x].getAdvertisementAirtimeMs();
+			dataAirtimeMs += nodes[x].getDataAirtimeMs();
+		}
+		results.append("Delivered ").append(sink.getDeliveredPacketCount()).append(" of ").append(sent[0])
+				.append(" (").append(deliveredBeforeCut[0]).append(" before the cut)\n");
+		results.append("Airtime: ").append(advertisementAirtimeMs).append("ms of advertisements, ")
+				.append(dataAirtimeMs).append("ms of data\n");
+		System.out.print(results);
+	}
+}
@@ -0,0 +1,81 @@
+package com.lorasim.test;
+
+import com.lorasim.network.DeliveryReport;
+import com.lorasim.network.ProtocolTransceiver;
+import com.lorasim.physical.Medium;
+import com.lorasim.sim.Scheduler;
+
+import java.util.ArrayList;
+
+/**
+ * Same topology as TestProtocol, but run on a virtual clock.
+ * Simulated time is decoupled from real time, and the output is identical on every run with the same seed.
+ */
+public class TestSimulation {
+	public static void main(String[] args){
+		long simulatedMs = 24 * 60 * 60 * 1000; // One day
+		long sendIntervalMs = 10 * 60 * 1000;
+		Scheduler scheduler = new Scheduler();
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1; // Pass a seed to replay a different run
+		Medium medium = new Medium(scheduler, seed);
+
+		ProtocolTransceiver baseStation = new ProtocolTransceiver(1, medium);
+		ProtocolTransceiver forwarder1 = new ProtocolTransceiver(2, medium);
+		ProtocolTransceiver forwarder2 = new ProtocolTransceiver(3, medium);
+		ProtocolTransceiver client = new ProtocolTransceiver(4, medium);
+
+		int lossPercentage = 0;
+		double bitErrorRate = 1e-3;
+
+		baseStation.addNeighbor(forwarder1, lossPercentage, bitErrorRate);
+		forwarder1.addNeighbor(baseStation, lossPercentage, bitErrorRate);
+		forwarder1.addNeighbor(forwarder2, lossPercentage, bitErrorRate);
+		forwarder2.addNeighbor(forwarder1, lossPercentage, bitErrorRate);
+		forwarder2.addNeighbor(client, lossPercentage, bitErrorRate);
+		client.addNeighbor(forwarder2, lossPercentage, bitErrorRate);
+
+		baseStation.addRoutingEntry(3, 2);
+		forwarder1.addRoutingEntry(1, 1);
+		forwarder1.addRoutingEntry(3, 3);
+		forwarder2.addRoutingEntry(1, 2);
+		forwarder2.addRoutingEntry(3, 4);
+		client.addRoutingEntry(1, 3);
+
+		baseStation.startThread();
+		forwarder1.startThread();
+		forwarder2.startThread();
+		client.startThread();
+
+		// The client reports in every sendIntervalMs, and keeps track of how each reading got through
+		ArrayList<DeliveryReport> reports = new ArrayList<>();
+		int[] failures = new int[1];
+		scheduler.startProcess(() -> {
+			for(int x = 0; ; x++){
+				client.sendAsync(1, ("Reading " + x).getBytes(), sendIntervalMs).whenComplete((report, error) -> {
+					if(report != null)
+						reports.add(report);
+					else
+						failures[0]++;
+				});
+				scheduler.sleep(sendIntervalMs);
+			}
+		}, "Client application");
+
+		long startMs = System.currentTimeMillis();
+		scheduler.runUntil(simulatedMs);
+		System.out.println("Seed " + seed + ": simulated " + simulatedMs + "ms in " + (System.currentTimeMillis() - startMs) + "ms");
+		System.out.println("Corrupt packets discarded: " + (baseStation.getCorruptPacketCount() + forwarder1.getCorruptPacketCount()
+				+ forwarder2.getCorruptPacketCount() + client.getCorruptPacketCount()));
+		System.out.println("Delivered " + baseStation.getDeliveredPacketCount() + " of " + client.getQueuedPacketCount()
+				+ " readings (" + client.getDroppedSendCount() + " dropped by a full send queue)");
+		long totalLatencyMs = 0, maxLatencyMs = 0, retries = 0;
+		for(DeliveryReport report : reports){
+			totalLatencyMs += report.getLatencyMs();
+			maxLatencyMs = Math.max(maxLatencyMs, report.getLatencyMs());
+			retries += report.getRetries();
+		}
+		if(!reports.isEmpty())
+			System.out.println("Latency: mean " + totalLatencyMs / reports.size() + "ms, max " + maxLatencyMs + "ms, "
+					+ reports.get(0).getHops() + " hops, " + retries + " retries, " + failures[0] + " failed");
+	}
+}
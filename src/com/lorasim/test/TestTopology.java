@@ -0,0 +1,51 @@
+package com.lorasim.test;
+
+import com.lorasim.physical.LogDistancePropagation;
+import com.lorasim.physical.Medium;
+import com.lorasim.physical.Mobility;
+import com.lorasim.physical.PhysicalTransceiver;
+import com.lorasim.physical.RandomWalkMobility;
+import com.lorasim.physical.Topology;
+import com.lorasim.sim.Scheduler;
+
+import java.util.SplittableRandom;
+
+/**
+ * Scatter transceivers over a map, link the ones in range of each other, then move some of them around
+ */
+public class TestTopology {
+	public static void main(String[] args){
+		int nodeCount = 10000;
+		double mapSizeM = 50000;
+		Scheduler scheduler = new Scheduler();
+		Medium medium = new Medium(scheduler, 1);
+		Topology topology = new Topology(new LogDistancePropagation());
+		SplittableRandom random = new SplittableRandom(medium.getSeed()); // Initial placement
+
+		PhysicalTransceiver[] nodes = new PhysicalTransceiver[nodeCount];
+		for(int x = 0; x < nodeCount; x++){
+			nodes[x] = new PhysicalTransceiver(x, medium);
+			nodes[x].setPosition(random.nextDouble() * mapSizeM, random.nextDouble() * mapSizeM);
+			topology.add(nodes[x]);
+		}
+
+		long start = System.currentTimeMillis();
+		topology.connect();
+		long elapsed = System.currentTimeMillis() - start;
+
+		System.out.printf("Range %.0fm, %d nodes, %d links, connected in %dms\n",
+				topology.getMaxRangeM(), nodeCount, topology.getLinkCount(), elapsed);
+		System.out.printf("Node 0 to node 1: %.1fdBm\n", topology.getRssiDbm(nodes[0], nodes[1]));
+
+		// A tenth of the nodes wander around for an hour, moving every 10 seconds
+		Mobility mobility = new Mobility(topology, scheduler, 10000);
+		for(int x = 0; x < nodeCount; x += 10)
+			mobility.add(nodes[x], new RandomWalkMobility(0, 0, mapSizeM, mapSizeM, 1.5, medium.newRandom(Medium.STREAM_MOBILITY, x, 0)));
+		mobility.start();
+		start = System.currentTimeMillis();
+		scheduler.runFor(60 * 60 * 1000);
+		elapsed = System.currentTimeMillis() - start;
+		System.out.printf("%d moves, %d links after an hour, updated in %dms\n",
+				mobility.getMoveCount(), topology.getLinkCount(), elapsed);
+	}
+}